@@ -22,17 +22,21 @@ package com.simiacryptus.mindseye.layers;
 import com.simiacryptus.lang.UncheckedSupplier;
 import com.simiacryptus.mindseye.lang.Layer;
 import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.TensorArray;
+import com.simiacryptus.mindseye.lang.TensorList;
+import com.simiacryptus.mindseye.test.EvalContext;
 import com.simiacryptus.mindseye.test.LayerTestBase;
-import com.simiacryptus.mindseye.test.SimpleEval;
+import com.simiacryptus.mindseye.test.SimpleListEval;
+import com.simiacryptus.mindseye.test.SimpleResult;
 import com.simiacryptus.mindseye.test.unit.TrainingTester;
 import com.simiacryptus.notebook.NotebookOutput;
 import com.simiacryptus.ref.lang.MustCall;
 import com.simiacryptus.ref.lang.RefIgnore;
 import com.simiacryptus.ref.lang.RefUtil;
-import com.simiacryptus.ref.wrappers.RefCollectors;
 import com.simiacryptus.ref.wrappers.RefDoubleStream;
 import com.simiacryptus.ref.wrappers.RefIntStream;
 import com.simiacryptus.ref.wrappers.RefList;
+import com.simiacryptus.ref.wrappers.RefString;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
@@ -42,14 +46,20 @@ import smile.plot.swing.ScatterPlot;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.concurrent.TimeUnit;
-import java.util.function.DoubleFunction;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 
 /**
  * The type Activation layer test base.
  */
 public abstract class ActivationLayerTestBase extends LayerTestBase {
+  /**
+   * The maximum number of points evaluated in one batch by {@link #evalBatch(Layer, double[])}.
+   */
+  public static final int SCAN_BATCH = 1 << 16;
 
   @Nullable
   @RefIgnore
@@ -132,6 +142,78 @@ public abstract class ActivationLayerTestBase extends LayerTestBase {
     return RefIntStream.range(-1000, 1000).mapToDouble(x -> x / 300.0);
   }
 
+  /**
+   * Gets the number of evenly spaced points sampled over the {@link #scan()} range to look
+   * for discontinuities; zero disables the fine scan.
+   *
+   * @return the fine scan points
+   */
+  public int getFineScanPoints() {
+    return Integer.getInteger("mindseye.activation.fineScan", 0);
+  }
+
+  /**
+   * Evaluates a scalar activation at every x in as few batched passes as possible, each
+   * pass carrying up to {@link #SCAN_BATCH} points through one forward and one backward
+   * evaluation.
+   *
+   * @param layer the layer
+   * @param x     the x
+   * @return rows of {x, value, derivative}
+   */
+  @Nonnull
+  public static double[][] evalBatch(@Nonnull final Layer layer, @Nonnull final double[] x) {
+    final double[][] rows = new double[x.length][];
+    try {
+      for (int offset = 0; offset < x.length; offset += SCAN_BATCH) {
+        final int length = Math.min(SCAN_BATCH, x.length - offset);
+        final Tensor[] points = new Tensor[length];
+        for (int i = 0; i < length; i++) {
+          points[i] = new Tensor(x[offset + i]);
+        }
+        final SimpleResult result = SimpleListEval.run(layer.addRef(), new TensorArray(points));
+        final TensorList output = result.getOutput();
+        final TensorList[] derivative = result.getInputDerivative();
+        result.freeRef();
+        assert output != null;
+        assert derivative != null;
+        for (int i = 0; i < length; i++) {
+          final Tensor value = output.get(i);
+          final Tensor slope = derivative[0].get(i);
+          rows[offset + i] = new double[]{x[offset + i], value.get(0), slope.get(0)};
+          value.freeRef();
+          slope.freeRef();
+        }
+        output.freeRef();
+        RefUtil.freeRef(derivative);
+      }
+    } finally {
+      layer.freeRef();
+    }
+    return rows;
+  }
+
+  /**
+   * Finds the steps of a dense scan whose change in value is far larger than the local
+   * derivative predicts, which is how jumps show up between two sample points.
+   *
+   * @param rows  rows of {x, value, derivative}, ordered by x
+   * @param limit the maximum number of steps to report
+   * @return the steps as {x0, x1, jump, predicted}, largest excess first
+   */
+  @Nonnull
+  public static double[][] discontinuities(@Nonnull final double[][] rows, final int limit) {
+    return IntStream.range(1, rows.length).mapToObj(i -> {
+      final double[] left = rows[i - 1];
+      final double[] right = rows[i];
+      final double jump = Math.abs(right[1] - left[1]);
+      final double predicted = (right[0] - left[0]) * Math.max(Math.abs(left[2]), Math.abs(right[2]));
+      return new double[]{left[0], right[0], jump, predicted};
+    }).filter(step -> step[2] > 1e-3 && step[2] > 10 * step[3])
+        .sorted(Comparator.comparingDouble((double[] step) -> step[3] - step[2]))
+        .limit(limit).toArray(double[][]::new);
+  }
+
   /**
    * Activation plot.
    */
@@ -141,30 +223,36 @@ public abstract class ActivationLayerTestBase extends LayerTestBase {
     NotebookOutput log = getLog();
     log.h3("Function Plots");
     final Layer layer1 = getLayer();
-    final RefList<double[]> plotData = scan().mapToObj(RefUtil.wrapInterface((DoubleFunction<? extends double[]>) x -> {
-      @Nonnull
-      Tensor tensor = new Tensor(x);
-      @Nonnull final SimpleEval eval = SimpleEval.run(layer1 == null ? null : layer1.addRef(), tensor);
-      Tensor output = eval.getOutput();
-      Tensor[] derivative = eval.getDerivative();
-      assert derivative != null;
-      assert output != null;
-      double[] temp_03_0002 = new double[]{x, output.get(0), derivative[0].get(0)};
-      RefUtil.freeRef(derivative);
-      output.freeRef();
-      eval.freeRef();
-      return temp_03_0002;
-    }, layer1)).collect(RefCollectors.toList());
-
-    log.eval(RefUtil.wrapInterface((UncheckedSupplier<PlotPanel>) () -> {
-      return ActivationLayerTestBase.plot("Value Plot", plotData == null ? null : plotData.addRef(),
-          x -> new double[]{x[0], x[1]});
-    }, plotData == null ? null : plotData.addRef()));
-
-    log.eval(RefUtil.wrapInterface((UncheckedSupplier<PlotPanel>) () -> {
-      return ActivationLayerTestBase.plot("Derivative Plot", plotData == null ? null : plotData.addRef(),
-          x -> new double[]{x[0], x[2]});
-    }, plotData));
+    assert layer1 != null;
+    final double[] x = scan().toArray();
+    final double[][] plotData = evalBatch(layer1.addRef(), x);
+
+    log.eval(() -> {
+      return ActivationLayerTestBase.plot("Value Plot",
+          Arrays.stream(plotData).map(row -> new double[]{row[0], row[1]}).toArray(double[][]::new));
+    });
+
+    log.eval(() -> {
+      return ActivationLayerTestBase.plot("Derivative Plot",
+          Arrays.stream(plotData).map(row -> new double[]{row[0], row[2]}).toArray(double[][]::new));
+    });
+
+    final int points = getFineScanPoints();
+    if (points > 1 && x.length > 1) {
+      log.h3("Discontinuity Scan");
+      final double min = Arrays.stream(x).min().getAsDouble();
+      final double max = Arrays.stream(x).max().getAsDouble();
+      log.p(RefString.format("Largest unexplained steps over %d points in [%s, %s]:", points, min, max));
+      log.eval(RefUtil.wrapInterface((UncheckedSupplier<String>) () -> {
+        final double[] fine = IntStream.range(0, points).mapToDouble(i -> min + (max - min) * i / (points - 1)).toArray();
+        final double[][] steps = discontinuities(evalBatch(layer1.addRef(), fine), 10);
+        return Arrays.stream(steps)
+            .map(step -> RefString.format("[%s, %s]: jump %s, derivative predicts %s", step[0], step[1], step[2], step[3]))
+            .reduce((a, b) -> a + "\n" + b).orElse("No discontinuities found");
+      }, layer1));
+    } else {
+      layer1.freeRef();
+    }
   }
 
   /**
@@ -175,6 +263,7 @@ public abstract class ActivationLayerTestBase extends LayerTestBase {
   public void cleanup() {
     if (null != layer)
       layer.freeRef();
+    EvalContext.getDefault().reset();
   }
 
 }
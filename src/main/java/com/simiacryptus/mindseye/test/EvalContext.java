@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of scratch tensors keyed by shape, shared by {@link SimpleEval} and
+ * {@link SimpleListEval} so that repeated evaluations reuse their input copies,
+ * derivative accumulators and feedback buffers instead of allocating new ones.
+ * <p>
+ * Tensors are handed out with a single reference owned by the caller. A tensor is only
+ * taken back when that is still the only reference; anything retained elsewhere (a
+ * derivative returned to a caller, an input a layer kept hold of) is simply released.
+ * Each shape keeps at most {@link #getCapacity()} idle tensors, and {@link #reset()}
+ * releases all of them.
+ */
+public class EvalContext {
+  private static final EvalContext DEFAULT = new EvalContext(16);
+
+  private final Map<Shape, Bin> bins = new ConcurrentHashMap<>();
+  private final int capacity;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Instantiates a new Eval context.
+   *
+   * @param capacity the number of idle tensors kept per shape
+   */
+  public EvalContext(final int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Gets the process-wide context used when no other is given.
+   *
+   * @return the default
+   */
+  @Nonnull
+  public static EvalContext getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Gets capacity.
+   *
+   * @return the capacity
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Gets hits.
+   *
+   * @return the hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Gets misses.
+   *
+   * @return the misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Obtains a zeroed tensor.
+   *
+   * @param dims the dims
+   * @return the tensor
+   */
+  @Nonnull
+  public Tensor obtain(@Nonnull final int... dims) {
+    return obtain(0.0, dims);
+  }
+
+  /**
+   * Obtains a tensor with every value set.
+   *
+   * @param value the value
+   * @param dims  the dims
+   * @return the tensor
+   */
+  @Nonnull
+  public Tensor obtain(final double value, @Nonnull final int... dims) {
+    final Bin bin = bins.get(new Shape(dims));
+    final Tensor tensor = null == bin ? null : bin.poll();
+    if (null == tensor) {
+      misses.incrementAndGet();
+      final Tensor created = new Tensor(dims);
+      if (0.0 != value)
+        Arrays.fill(created.getData(), value);
+      return created;
+    }
+    hits.incrementAndGet();
+    Arrays.fill(tensor.getData(), value);
+    return tensor;
+  }
+
+  /**
+   * Obtains a tensor holding a copy of another tensor's values.
+   *
+   * @param source the source
+   * @return the tensor
+   */
+  @Nonnull
+  public Tensor copyOf(@Nonnull final Tensor source) {
+    try {
+      final Bin bin = bins.get(new Shape(source.getDimensions()));
+      final Tensor tensor = null == bin ? null : bin.poll();
+      if (null == tensor) {
+        misses.incrementAndGet();
+        return source.copy();
+      }
+      hits.incrementAndGet();
+      final double[] data = source.getData();
+      System.arraycopy(data, 0, tensor.getData(), 0, data.length);
+      return tensor;
+    } finally {
+      source.freeRef();
+    }
+  }
+
+  /**
+   * Returns a tensor to the pool, or releases it if it is still referenced elsewhere or
+   * its shape is already at capacity.
+   *
+   * @param tensor the tensor
+   */
+  public void recycle(@Nullable final Tensor tensor) {
+    if (null == tensor)
+      return;
+    if (tensor.isFreed())
+      return;
+    if (1 != tensor.currentRefCount()) {
+      tensor.freeRef();
+      return;
+    }
+    final Bin bin = bins.computeIfAbsent(new Shape(tensor.getDimensions()), shape -> new Bin());
+    if (!bin.offer(tensor, capacity))
+      tensor.freeRef();
+  }
+
+  /**
+   * Recycles each tensor of an array.
+   *
+   * @param tensors the tensors
+   */
+  public void recycle(@Nullable final Tensor[] tensors) {
+    if (null == tensors)
+      return;
+    for (Tensor tensor : tensors) {
+      recycle(tensor);
+    }
+  }
+
+  /**
+   * Releases every idle tensor.
+   */
+  public void reset() {
+    bins.values().forEach(Bin::clear);
+    bins.clear();
+  }
+
+  @Nonnull
+  @Override
+  public String toString() {
+    return "EvalContext{" + "shapes=" + bins.size() + ", hits=" + hits + ", misses=" + misses + '}';
+  }
+
+  private static final class Shape {
+    private final int[] dims;
+    private final int hash;
+
+    /**
+     * Instantiates a new Shape.
+     *
+     * @param dims the dims
+     */
+    Shape(@Nonnull final int[] dims) {
+      this.dims = dims;
+      this.hash = Arrays.hashCode(dims);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return this == o || o instanceof Shape && Arrays.equals(dims, ((Shape) o).dims);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class Bin {
+    private final ConcurrentLinkedDeque<Tensor> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Poll tensor.
+     *
+     * @return the tensor
+     */
+    @Nullable
+    Tensor poll() {
+      final Tensor tensor = idle.pollFirst();
+      if (null != tensor)
+        size.decrementAndGet();
+      return tensor;
+    }
+
+    /**
+     * Offer boolean.
+     *
+     * @param tensor   the tensor
+     * @param capacity the capacity
+     * @return the boolean
+     */
+    boolean offer(@Nonnull final Tensor tensor, final int capacity) {
+      if (size.incrementAndGet() > capacity) {
+        size.decrementAndGet();
+        return false;
+      }
+      idle.offerFirst(tensor);
+      return true;
+    }
+
+    /**
+     * Clear.
+     */
+    void clear() {
+      Tensor tensor;
+      while (null != (tensor = poll())) {
+        tensor.freeRef();
+      }
+    }
+  }
+}
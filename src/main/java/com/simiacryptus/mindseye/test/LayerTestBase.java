@@ -47,7 +47,7 @@ public abstract class LayerTestBase extends LayerTests {
   @Timeout(value = 15, unit = TimeUnit.MINUTES)
   @DisplayName("Performance")
   public void perfTest() {
-    long seed = (long) (Math.random() * Long.MAX_VALUE);
+    long seed = testSeed("perfTest");
     run(getLog(), getPerformanceTester(), getLargeDims(), seed);
   }
 
@@ -58,7 +58,7 @@ public abstract class LayerTestBase extends LayerTests {
   @Timeout(value = 15, unit = TimeUnit.MINUTES)
   @DisplayName("Data Batching Invariance")
   public void batchingTest() {
-    long seed = (long) (Math.random() * Long.MAX_VALUE);
+    long seed = testSeed("batchingTest");
     run(getLog(), getBatchingTester(), getLargeDims(), seed);
   }
 
@@ -69,8 +69,8 @@ public abstract class LayerTestBase extends LayerTests {
   @Timeout(value = 15, unit = TimeUnit.MINUTES)
   @DisplayName("Input/Output")
   public void referenceIOTest() {
-    long seed = (long) (Math.random() * Long.MAX_VALUE);
-    run(getLog(), new ReferenceIO(getReferenceIO()), getLargeDims(), seed);
+    long seed = testSeed("referenceIOTest");
+    run(getLog(), getReferenceIOTester(), getLargeDims(), seed);
   }
 
   @Test
@@ -97,7 +97,7 @@ public abstract class LayerTestBase extends LayerTests {
           }
         },
         getLargeDims(),
-        (long) (Math.random() * Long.MAX_VALUE)
+        testSeed("graphTest")
     );
   }
 
@@ -108,7 +108,7 @@ public abstract class LayerTestBase extends LayerTests {
   @Timeout(value = 15, unit = TimeUnit.MINUTES)
   @DisplayName("Equivalency Validation")
   public void equivalencyTest() {
-    long seed = (long) (Math.random() * Long.MAX_VALUE);
+    long seed = testSeed("equivalencyTest");
     EquivalencyTester equivalencyTester = getEquivalencyTester();
     Assumptions.assumeTrue(null != equivalencyTester, "No Reference Layer");
     run(getLog(), equivalencyTester, getLargeDims(), seed);
@@ -121,8 +121,8 @@ public abstract class LayerTestBase extends LayerTests {
   @Timeout(value = 15, unit = TimeUnit.MINUTES)
   @DisplayName("JSON Serialization")
   public void jsonTest() {
-    long seed = (long) (Math.random() * Long.MAX_VALUE);
-    run(getLog(), new SerializationTest(), getSmallDims(), seed);
+    long seed = testSeed("jsonTest");
+    run(getLog(), getSerializationTester(), getSmallDims(), seed);
   }
 
   /**
@@ -132,7 +132,7 @@ public abstract class LayerTestBase extends LayerTests {
   @Timeout(value = 15, unit = TimeUnit.MINUTES)
   @DisplayName("Derivative Validation")
   public void derivativeTest() {
-    long seed = (long) (Math.random() * Long.MAX_VALUE);
+    long seed = testSeed("derivativeTest");
     run(getLog(), getDerivativeTester(), getSmallDims(), seed);
   }
 
@@ -143,7 +143,7 @@ public abstract class LayerTestBase extends LayerTests {
   @Timeout(value = 15, unit = TimeUnit.MINUTES)
   @DisplayName("Comparative Training")
   public void trainingTest() {
-    long seed = (long) (Math.random() * Long.MAX_VALUE);
+    long seed = testSeed("trainingTest");
     run(getLog(), getTrainingTester(), getLargeDims(), seed);
   }
 
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.Layer;
+import com.simiacryptus.mindseye.lang.SerialPrecision;
+import com.simiacryptus.ref.wrappers.RefList;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A model file made of a json description plus page-aligned, little-endian raw weight
+ * blocks, one per {@link Layer#state()} buffer. The weights are restored from the blocks,
+ * which can be memory mapped instead of parsed.
+ * <p>
+ * The json is the layer's compact form, in which every tensor large enough to be written
+ * as a binary resource is replaced by a reference, plus the byte length of each such
+ * resource; the resource bytes themselves are not stored. Small tensors stay inline, so
+ * the json grows with the number of tensors rather than the number of parameters. On
+ * read the layer is rebuilt against zero-filled resources of the recorded lengths and
+ * its state is then bulk-copied from the blocks. Building the layer still allocates
+ * every weight array on the heap, since a layer owns its state, so reads save the json
+ * parsing and decoding of the weights but not their allocation.
+ * <p>
+ * Layout: a header of magic, version, json length and block count, followed by
+ * (offset, length) pairs for every block and the json bytes; each block then starts on
+ * a {@link #PAGE_SIZE} boundary.
+ */
+public class ModelSnapshot {
+  /**
+   * The constant PAGE_SIZE.
+   */
+  public static final int PAGE_SIZE = 4096;
+  private static final int MAGIC = 0x4D534E50;
+  private static final int VERSION = 2;
+
+  /**
+   * Writes a snapshot of the layer.
+   *
+   * @param layer the layer
+   * @param file  the file
+   * @throws IOException the io exception
+   */
+  public static void write(@Nonnull final Layer layer, @Nonnull final File file) throws IOException {
+    final double[][] blocks;
+    final byte[] json;
+    try {
+      RefList<double[]> state = layer.state();
+      assert state != null;
+      blocks = state.stream().toArray(double[][]::new);
+      state.freeRef();
+      json = getStructure(layer.addRef()).toString().getBytes(StandardCharsets.UTF_8);
+    } finally {
+      layer.freeRef();
+    }
+    final int headerSize = 16 + blocks.length * 16 + json.length;
+    final long[] offsets = new long[blocks.length];
+    long position = align(headerSize);
+    for (int i = 0; i < blocks.length; i++) {
+      offsets[i] = position;
+      position = align(position + blocks[i].length * 8L);
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(json.length).putInt(blocks.length);
+      for (int i = 0; i < blocks.length; i++) {
+        header.putLong(offsets[i]).putLong(blocks[i].length);
+      }
+      header.put(json).flip();
+      writeFully(channel, header, 0);
+      for (int i = 0; i < blocks.length; i++) {
+        if (0 == blocks[i].length)
+          continue;
+        final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, offsets[i], blocks[i].length * 8L);
+        mapped.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(blocks[i]);
+        mapped.force();
+      }
+      if (channel.size() < position) {
+        // Pad the final block out to the page boundary
+        writeFully(channel, ByteBuffer.allocate(1), position - 1);
+      }
+    }
+  }
+
+  /**
+   * Reads a snapshot, bulk-copying each mapped block into the rebuilt layer's state.
+   *
+   * @param file the file
+   * @return the layer
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  public static Layer read(@Nonnull final File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final Header header = readHeader(channel);
+      checkCoverage(header);
+      final Layer layer = fromStructure(header.json);
+      RefList<double[]> state = layer.state();
+      assert state != null;
+      try {
+        if (state.size() != header.offsets.length) {
+          layer.freeRef();
+          throw new IOException(String.format("Snapshot has %d blocks, layer has %d", header.offsets.length, state.size()));
+        }
+        for (int i = 0; i < header.offsets.length; i++) {
+          final double[] buffer = state.get(i);
+          if (buffer.length != header.lengths[i]) {
+            layer.freeRef();
+            throw new IOException(String.format("Block %d has %d values, expected %d", i, header.lengths[i], buffer.length));
+          }
+          map(channel, header.offsets[i], header.lengths[i]).get(buffer);
+        }
+      } finally {
+        state.freeRef();
+      }
+      return layer;
+    }
+  }
+
+  /**
+   * Maps the weight blocks of a snapshot as read-only views, without building a layer.
+   *
+   * @param file the file
+   * @return the double buffer [ ]
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  public static DoubleBuffer[] mapState(@Nonnull final File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final Header header = readHeader(channel);
+      final DoubleBuffer[] buffers = new DoubleBuffer[header.offsets.length];
+      for (int i = 0; i < buffers.length; i++) {
+        buffers[i] = map(channel, header.offsets[i], header.lengths[i]);
+      }
+      return buffers;
+    }
+  }
+
+  /**
+   * Gets the structure of a layer: its compact json, with every resource-sized tensor
+   * replaced by a reference, plus the byte length of each resource. The weights of those
+   * tensors are not kept.
+   *
+   * @param layer the layer
+   * @return the structure
+   */
+  @Nonnull
+  public static JsonObject getStructure(@Nonnull final Layer layer) {
+    final ResourceSizes resources = new ResourceSizes();
+    final JsonObject json = new JsonObject();
+    try {
+      json.add("layer", layer.getJson(resources, SerialPrecision.Double));
+    } finally {
+      layer.freeRef();
+    }
+    final JsonObject sizes = new JsonObject();
+    resources.sizes.forEach(sizes::addProperty);
+    json.add("resources", sizes);
+    return json;
+  }
+
+  /**
+   * Builds a layer from its {@link #getStructure(Layer) structure}. Resource-sized tensors
+   * are zero; the caller restores them through {@link Layer#state()}.
+   *
+   * @param json the json
+   * @return the layer
+   */
+  @Nonnull
+  public static Layer fromStructure(@Nonnull final JsonObject json) {
+    final Map<CharSequence, byte[]> resources = new HashMap<>();
+    for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject("resources").entrySet()) {
+      resources.put(entry.getKey(), new byte[entry.getValue().getAsInt()]);
+    }
+    return Layer.fromJson(json.getAsJsonObject("layer"), resources);
+  }
+
+  /**
+   * Checks that the state blocks hold at least as many bytes as the resources recorded in
+   * the structure, which are written at {@link SerialPrecision#Double double} precision. A
+   * resource not covered by any block would otherwise be restored as zeros.
+   */
+  private static void checkCoverage(@Nonnull final Header header) throws IOException {
+    long resourceBytes = 0;
+    for (Map.Entry<String, JsonElement> entry : header.json.getAsJsonObject("resources").entrySet()) {
+      resourceBytes += entry.getValue().getAsLong();
+    }
+    long blockBytes = 0;
+    for (long length : header.lengths) {
+      blockBytes += length * 8;
+    }
+    if (blockBytes < resourceBytes)
+      throw new IOException(String.format("Snapshot blocks hold %d bytes, resources need %d", blockBytes, resourceBytes));
+  }
+
+  @Nonnull
+  private static DoubleBuffer map(@Nonnull final FileChannel channel, final long offset, final long length)
+      throws IOException {
+    if (0 == length)
+      return DoubleBuffer.allocate(0);
+    return channel.map(FileChannel.MapMode.READ_ONLY, offset, length * 8).order(ByteOrder.LITTLE_ENDIAN)
+        .asDoubleBuffer();
+  }
+
+  @Nonnull
+  private static Header readHeader(@Nonnull final FileChannel channel) throws IOException {
+    final ByteBuffer prefix = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(channel, prefix, 0);
+    if (prefix.getInt() != MAGIC)
+      throw new IOException("Not a model snapshot");
+    final int version = prefix.getInt();
+    if (version != VERSION)
+      throw new IOException("Unsupported snapshot version " + version);
+    final int jsonLength = prefix.getInt();
+    final int blockCount = prefix.getInt();
+    final ByteBuffer table = ByteBuffer.allocate(blockCount * 16 + jsonLength).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(channel, table, 16);
+    final long[] offsets = new long[blockCount];
+    final long[] lengths = new long[blockCount];
+    for (int i = 0; i < blockCount; i++) {
+      offsets[i] = table.getLong();
+      lengths[i] = table.getLong();
+    }
+    final byte[] json = new byte[jsonLength];
+    table.get(json);
+    return new Header(new GsonBuilder().create().fromJson(new String(json, StandardCharsets.UTF_8), JsonObject.class),
+        offsets, lengths);
+  }
+
+  private static long align(final long position) {
+    return (position + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+  }
+
+  private static void writeFully(@Nonnull final FileChannel channel, @Nonnull final ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private static void readFully(@Nonnull final FileChannel channel, @Nonnull final ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, position);
+      if (read < 0)
+        throw new IOException("Truncated snapshot");
+      position += read;
+    }
+    buffer.flip();
+  }
+
+  /**
+   * Collects the resources of a compact layer json by size only, so the weights are not
+   * held in memory a second time while the structure is serialized.
+   */
+  private static class ResourceSizes extends HashMap<CharSequence, byte[]> {
+    /**
+     * The Sizes.
+     */
+    final Map<String, Integer> sizes = new LinkedHashMap<>();
+
+    @Override
+    public byte[] put(final CharSequence key, final byte[] value) {
+      sizes.put(key.toString(), value.length);
+      return null;
+    }
+  }
+
+  private static class Header {
+    /**
+     * The Json.
+     */
+    final JsonObject json;
+    /**
+     * The Offsets.
+     */
+    final long[] offsets;
+    /**
+     * The Lengths.
+     */
+    final long[] lengths;
+
+    /**
+     * Instantiates a new Header.
+     *
+     * @param json    the json
+     * @param offsets the offsets
+     * @param lengths the lengths
+     */
+    public Header(final JsonObject json, final long[] offsets, final long[] lengths) {
+      this.json = json;
+      this.offsets = offsets;
+      this.lengths = lengths;
+    }
+  }
+}
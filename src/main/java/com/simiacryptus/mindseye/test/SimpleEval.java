@@ -40,6 +40,8 @@ public class SimpleEval extends ReferenceCountingBase implements Callable<Simple
   private final Tensor[] input;
   @Nonnull
   private final Layer layer;
+  @Nonnull
+  private final EvalContext context;
   @Nullable
   private final Tensor[] derivative;
   private boolean calcDerivative = false;
@@ -53,6 +55,18 @@ public class SimpleEval extends ReferenceCountingBase implements Callable<Simple
    * @param input the input
    */
   public SimpleEval(@Nonnull final Layer layer, @Nonnull final Tensor... input) {
+    this(EvalContext.getDefault(), layer, input);
+  }
+
+  /**
+   * Instantiates a new Simple eval whose scratch tensors come from the given context.
+   *
+   * @param context the context
+   * @param layer   the layer
+   * @param input   the input
+   */
+  public SimpleEval(@Nonnull final EvalContext context, @Nonnull final Layer layer, @Nonnull final Tensor... input) {
+    this.context = context;
     this.layer = layer;
     this.input = input;
     this.output = null;
@@ -62,7 +76,7 @@ public class SimpleEval extends ReferenceCountingBase implements Callable<Simple
       } finally {
         tensor.freeRef();
       }
-    }).map(dims -> new Tensor(dims)).toArray(value -> new Tensor[value]);
+    }).map(dims -> context.obtain(dims)).toArray(value -> new Tensor[value]);
   }
 
   /**
@@ -153,7 +167,22 @@ public class SimpleEval extends ReferenceCountingBase implements Callable<Simple
    */
   @Nonnull
   public static SimpleEval run(@Nonnull final Layer layer, boolean validateDerivative, @Nullable final Tensor... tensor) {
-    SimpleEval simpleEval = new SimpleEval(layer, tensor);
+    return run(EvalContext.getDefault(), layer, validateDerivative, tensor);
+  }
+
+  /**
+   * Run simple eval.
+   *
+   * @param context            the context
+   * @param layer              the layer
+   * @param validateDerivative the validate derivative
+   * @param tensor             the tensor
+   * @return the simple eval
+   */
+  @Nonnull
+  public static SimpleEval run(@Nonnull final EvalContext context, @Nonnull final Layer layer, boolean validateDerivative,
+                               @Nullable final Tensor... tensor) {
+    SimpleEval simpleEval = new SimpleEval(context, layer, tensor);
     simpleEval.setValidateDerivative(validateDerivative);
     simpleEval.eval();
     return simpleEval;
@@ -170,7 +199,9 @@ public class SimpleEval extends ReferenceCountingBase implements Callable<Simple
    * Eval.
    */
   public void eval() {
-    setResult(layer.eval(input()));
+    final Tensor[] inputCopies = new Tensor[input.length];
+    setResult(layer.eval(input(inputCopies)));
+    context.recycle(inputCopies);
   }
 
   /**
@@ -180,11 +211,7 @@ public class SimpleEval extends ReferenceCountingBase implements Callable<Simple
    */
   @NotNull
   public Result[] input() {
-    return RefIntStream.range(0, input.length).mapToObj(i -> {
-      Result.Accumulator accumulator = new Accumulator(derivative[i].addRef());
-      TensorArray data = new TensorArray(input[i].copy());
-      return new Result(data, accumulator, true);
-    }).toArray(Result[]::new);
+    return input(new Tensor[input.length]);
   }
 
   /**
@@ -195,22 +222,12 @@ public class SimpleEval extends ReferenceCountingBase implements Callable<Simple
    */
   @Nonnull
   public TensorList getFeedback(@Nonnull final TensorList data) {
-    try {
-      return new TensorArray(data.stream().map(t -> {
-        try {
-          return t.map(v -> 1.0);
-        } finally {
-          t.freeRef();
-        }
-      }).toArray(Tensor[]::new));
-    } finally {
-      data.freeRef();
-    }
+    return new TensorArray(feedbackTensors(data));
   }
 
   public void _free() {
     super._free();
-    RefUtil.freeRef(derivative);
+    context.recycle(derivative);
     layer.freeRef();
     RefUtil.freeRef(input);
     synchronized (this) {
@@ -228,13 +245,40 @@ public class SimpleEval extends ReferenceCountingBase implements Callable<Simple
     return (SimpleEval) super.addRef();
   }
 
+  @NotNull
+  private Result[] input(@Nonnull final Tensor[] inputCopies) {
+    return RefIntStream.range(0, input.length).mapToObj(i -> {
+      Result.Accumulator accumulator = new Accumulator(derivative[i].addRef());
+      inputCopies[i] = context.copyOf(input[i].addRef());
+      TensorArray data = new TensorArray(inputCopies[i].addRef());
+      return new Result(data, accumulator, true);
+    }).toArray(Result[]::new);
+  }
+
+  @Nonnull
+  private Tensor[] feedbackTensors(@Nonnull final TensorList data) {
+    try {
+      return data.stream().map(t -> {
+        try {
+          return context.obtain(1.0, t.getDimensions());
+        } finally {
+          t.freeRef();
+        }
+      }).toArray(Tensor[]::new);
+    } finally {
+      data.freeRef();
+    }
+  }
+
   @RefIgnore
   private void checkedFeedback(@RefIgnore Result eval, TensorList evalData) {
-    TensorList feedback = getFeedback(evalData);
+    Tensor[] ones = feedbackTensors(evalData);
+    TensorList feedback = new TensorArray(RefUtil.addRef(ones));
     eval.accumulate(new DeltaSet<>(), feedback);
     if (!feedback.isFreed()) {
       throw new IllegalStateException();
     }
+    context.recycle(ones);
   }
 
   private static class Accumulator extends Result.Accumulator {
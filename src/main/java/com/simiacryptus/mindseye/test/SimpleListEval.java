@@ -39,10 +39,14 @@ public class SimpleListEval extends ReferenceCountingBase implements Callable<Si
   private final TensorList[] input;
   @Nonnull
   private final Layer layer;
+  @Nonnull
+  private final EvalContext context;
   private boolean calcDerivatives = true;
   @Nullable
   private TensorList[] inputDerivative;
   @Nullable
+  private Tensor[][] derivativeTensors;
+  @Nullable
   private TensorList output;
   @Nullable
   private DeltaSet<UUID> layerDerivative;
@@ -54,6 +58,19 @@ public class SimpleListEval extends ReferenceCountingBase implements Callable<Si
    * @param input the input
    */
   public SimpleListEval(@Nonnull final Layer layer, @Nonnull final TensorList... input) {
+    this(EvalContext.getDefault(), layer, input);
+  }
+
+  /**
+   * Instantiates a new Simple list eval whose scratch tensors come from the given context.
+   *
+   * @param context the context
+   * @param layer   the layer
+   * @param input   the input
+   */
+  public SimpleListEval(@Nonnull final EvalContext context, @Nonnull final Layer layer,
+                        @Nonnull final TensorList... input) {
+    this.context = context;
     Layer temp_09_0001 = layer.addRef();
     this.layer = temp_09_0001 == null ? null : temp_09_0001.addRef();
     if (null != temp_09_0001)
@@ -160,7 +177,22 @@ public class SimpleListEval extends ReferenceCountingBase implements Callable<Si
    */
   @Nonnull
   public static SimpleResult run(@Nonnull final Layer layer, boolean calcDerivatives, @Nullable final TensorList... tensor) {
-    SimpleListEval eval = new SimpleListEval(layer, tensor);
+    return run(EvalContext.getDefault(), layer, calcDerivatives, tensor);
+  }
+
+  /**
+   * Run simple result.
+   *
+   * @param context         the context
+   * @param layer           the layer
+   * @param calcDerivatives the calc derivatives
+   * @param tensor          the tensor
+   * @return the simple result
+   */
+  @Nonnull
+  public static SimpleResult run(@Nonnull final EvalContext context, @Nonnull final Layer layer, boolean calcDerivatives,
+                                 @Nullable final TensorList... tensor) {
+    SimpleListEval eval = new SimpleListEval(context, layer, tensor);
     eval.setCalcDerivatives(calcDerivatives);
     SimpleResult temp_09_0013 = eval.call();
     eval.freeRef();
@@ -170,22 +202,25 @@ public class SimpleListEval extends ReferenceCountingBase implements Callable<Si
   @Nonnull
   @Override
   public SimpleResult call() {
-    TensorList[] inputCopy = RefArrays.stream(RefUtil.addRef(input)).map(tensorList -> {
-      TensorList copy = tensorList.copy();
+    final Tensor[][] inputTensors = RefArrays.stream(RefUtil.addRef(input)).map(tensorList -> {
+      Tensor[] copies = tensorList.stream().map(tensor -> context.copyOf(tensor)).toArray(Tensor[]::new);
       tensorList.freeRef();
-      return copy;
-    }).toArray(TensorList[]::new);
-    if (null != inputDerivative)
-      RefUtil.freeRef(inputDerivative);
-    inputDerivative = RefArrays.stream(RefUtil.addRef(inputCopy)).map(tensorList -> {
-      TensorArray tensorArray = new TensorArray(tensorList.stream().map(tensor -> {
-        int[] dimensions = tensor.getDimensions();
-        tensor.freeRef();
-        return new Tensor(dimensions);
-      }).toArray(Tensor[]::new));
-      tensorList.freeRef();
-      return tensorArray;
-    }).toArray(TensorList[]::new);
+      return copies;
+    }).toArray(Tensor[][]::new);
+    TensorList[] inputCopy = new TensorList[inputTensors.length];
+    for (int i = 0; i < inputTensors.length; i++) {
+      inputCopy[i] = new TensorArray(RefUtil.addRef(inputTensors[i]));
+    }
+    releaseInputDerivative();
+    derivativeTensors = new Tensor[inputTensors.length][];
+    inputDerivative = new TensorList[inputTensors.length];
+    for (int i = 0; i < inputTensors.length; i++) {
+      derivativeTensors[i] = new Tensor[inputTensors[i].length];
+      for (int j = 0; j < inputTensors[i].length; j++) {
+        derivativeTensors[i][j] = context.obtain(inputTensors[i][j].getDimensions());
+      }
+      inputDerivative[i] = new TensorArray(RefUtil.addRef(derivativeTensors[i]));
+    }
     Result[] inputs = RefIntStream.range(0, inputCopy.length)
         .mapToObj(RefUtil.wrapInterface((IntFunction<Result>) i -> {
           Result.Accumulator accumulator = new Result.Accumulator() {
@@ -214,10 +249,15 @@ public class SimpleListEval extends ReferenceCountingBase implements Callable<Si
     if (null != this.layerDerivative)
       this.layerDerivative.freeRef();
     this.layerDerivative = new DeltaSet<>();
-    if (isCalcDerivatives())
-      eval.accumulate(layerDerivative == null ? null : layerDerivative.addRef(),
-          getFeedback(outputData == null ? null : outputData.addRef()));
+    if (isCalcDerivatives()) {
+      Tensor[] ones = feedbackTensors(outputData == null ? null : outputData.addRef());
+      eval.accumulate(layerDerivative == null ? null : layerDerivative.addRef(), new TensorArray(RefUtil.addRef(ones)));
+      context.recycle(ones);
+    }
     eval.freeRef();
+    for (Tensor[] copies : inputTensors) {
+      context.recycle(copies);
+    }
     if (null != output)
       output.freeRef();
     output = outputData;
@@ -232,13 +272,7 @@ public class SimpleListEval extends ReferenceCountingBase implements Callable<Si
    */
   @Nonnull
   public TensorList getFeedback(@Nonnull final TensorList data) {
-    TensorArray temp_09_0014 = new TensorArray(data.stream().map(t -> {
-      Tensor temp_09_0011 = t.map(v -> 1.0);
-      t.freeRef();
-      return temp_09_0011;
-    }).toArray(Tensor[]::new));
-    data.freeRef();
-    return temp_09_0014;
+    return new TensorArray(feedbackTensors(data));
   }
 
   public void _free() {
@@ -249,9 +283,7 @@ public class SimpleListEval extends ReferenceCountingBase implements Callable<Si
     if (null != output)
       output.freeRef();
     output = null;
-    if (null != inputDerivative)
-      RefUtil.freeRef(inputDerivative);
-    inputDerivative = null;
+    releaseInputDerivative();
     layer.freeRef();
     RefUtil.freeRef(input);
   }
@@ -262,4 +294,28 @@ public class SimpleListEval extends ReferenceCountingBase implements Callable<Si
   SimpleListEval addRef() {
     return (SimpleListEval) super.addRef();
   }
+
+  @Nonnull
+  private Tensor[] feedbackTensors(@Nonnull final TensorList data) {
+    Tensor[] ones = data.stream().map(t -> {
+      Tensor tensor = context.obtain(1.0, t.getDimensions());
+      t.freeRef();
+      return tensor;
+    }).toArray(Tensor[]::new);
+    data.freeRef();
+    return ones;
+  }
+
+  private void releaseInputDerivative() {
+    // Drop the lists first, so the pool sees its own reference as the last one
+    if (null != inputDerivative)
+      RefUtil.freeRef(inputDerivative);
+    inputDerivative = null;
+    if (null != derivativeTensors) {
+      for (Tensor[] tensors : derivativeTensors) {
+        context.recycle(tensors);
+      }
+    }
+    derivativeTensors = null;
+  }
 }
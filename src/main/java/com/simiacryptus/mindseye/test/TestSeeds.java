@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test;
+
+import com.simiacryptus.mindseye.test.unit.LayerTests;
+
+import javax.annotation.Nonnull;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Seeds for tests and data generators.
+ * <p>
+ * By default every seed is random, as before. In reproducible mode, enabled by
+ * {@code -Dmindseye.reproducible=true} or by giving a root seed with
+ * {@code -Dmindseye.seed=<n>}, each seed is derived from the root seed and a stable key,
+ * such as the test class and method. Work that fans out is seeded by its logical index
+ * (row, shard, expansion) through {@link #seed(long, long)} rather than by the thread that
+ * happens to run it, so results do not depend on the parallel schedule.
+ */
+public final class TestSeeds {
+  /**
+   * The system property enabling reproducible mode.
+   */
+  public static final String REPRODUCIBLE = "mindseye.reproducible";
+  /**
+   * The system property giving the root seed; setting it also enables reproducible mode.
+   */
+  public static final String ROOT_SEED = "mindseye.seed";
+  private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+  private TestSeeds() {
+  }
+
+  /**
+   * Is reproducible boolean.
+   *
+   * @return the boolean
+   */
+  public static boolean isReproducible() {
+    return Boolean.getBoolean(REPRODUCIBLE) || null != System.getProperty(ROOT_SEED);
+  }
+
+  /**
+   * Gets root seed.
+   *
+   * @return the root seed
+   */
+  public static long getRootSeed() {
+    return Long.getLong(ROOT_SEED, LayerTests.seed);
+  }
+
+  /**
+   * Gets the seed for a named test or generator: derived from the root seed in
+   * reproducible mode, random otherwise.
+   *
+   * @param key the key
+   * @return a non-negative seed
+   */
+  public static long seed(@Nonnull final CharSequence key) {
+    if (!isReproducible())
+      return ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+    return seed(getRootSeed(), key.toString().hashCode());
+  }
+
+  /**
+   * Derives the seed of the indexed child of a parent seed. The result depends only on
+   * the two arguments.
+   *
+   * @param parent the parent
+   * @param index  the index
+   * @return a non-negative seed
+   */
+  public static long seed(final long parent, final long index) {
+    return new SplittableRandom(parent + (index + 1) * GOLDEN_GAMMA).nextLong() & Long.MAX_VALUE;
+  }
+
+  /**
+   * Gets a random stream for a named test or generator.
+   *
+   * @param key the key
+   * @return the splittable random
+   */
+  @Nonnull
+  public static SplittableRandom random(@Nonnull final CharSequence key) {
+    return new SplittableRandom(seed(key));
+  }
+
+  /**
+   * Gets the random stream of the indexed child of a parent seed.
+   *
+   * @param parent the parent
+   * @param index  the index
+   * @return the splittable random
+   */
+  @Nonnull
+  public static SplittableRandom random(final long parent, final long index) {
+    return new SplittableRandom(seed(parent, index));
+  }
+}
@@ -49,6 +49,9 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.*;
 import java.util.stream.Collectors;
 
@@ -540,6 +543,37 @@ public class TestUtil {
     return () -> RefDoubleStream.iterate(start, x -> x * step).limit(steps);
   }
 
+  /**
+   * Runs a task inside a dedicated fork-join pool, so that any parallel streams it
+   * opens are bounded by the given parallelism. A parallelism of one or less runs the
+   * task on the calling thread.
+   *
+   * @param <T>         the type parameter
+   * @param parallelism the parallelism
+   * @param task        the task
+   * @return the t
+   */
+  public static <T> T runInPool(final int parallelism, @Nonnull final Callable<T> task) {
+    if (parallelism <= 1) {
+      try {
+        return task.call();
+      } catch (Exception e) {
+        throw Util.throwException(e);
+      }
+    }
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      return pool.submit(task).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Util.throwException(e);
+    } catch (ExecutionException e) {
+      throw Util.throwException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   /**
    * Shuffle ref list.
    *
@@ -37,6 +37,10 @@ public class ToleranceStatistics {
    * The Relative tol.
    */
   public final DoubleStatistics relativeTol;
+  /**
+   * The distance in units-in-the-last-place, for finite values.
+   */
+  public final DoubleStatistics ulpTol;
 
   /**
    * Instantiates a new Tolerance statistics.
@@ -52,8 +56,41 @@ public class ToleranceStatistics {
    * @param relativeTol the relative tol
    */
   public ToleranceStatistics(final DoubleStatistics absoluteTol, final DoubleStatistics relativeTol) {
+    this(absoluteTol, relativeTol, new DoubleStatistics());
+  }
+
+  /**
+   * Instantiates a new Tolerance statistics.
+   *
+   * @param absoluteTol the absolute tol
+   * @param relativeTol the relative tol
+   * @param ulpTol      the ulp tol
+   */
+  public ToleranceStatistics(final DoubleStatistics absoluteTol, final DoubleStatistics relativeTol,
+                             final DoubleStatistics ulpTol) {
     this.absoluteTol = absoluteTol;
     this.relativeTol = relativeTol;
+    this.ulpTol = ulpTol;
+  }
+
+  /**
+   * Number of representable doubles between two finite values.
+   *
+   * @param a the a
+   * @param b the b
+   * @return the double
+   */
+  public static double ulpDistance(final double a, final double b) {
+    if (a == b)
+      return 0;
+    long bitsA = Double.doubleToLongBits(a);
+    long bitsB = Double.doubleToLongBits(b);
+    // Map sign-magnitude to a monotonic two's complement ordering
+    if (bitsA < 0)
+      bitsA = Long.MIN_VALUE - bitsA;
+    if (bitsB < 0)
+      bitsB = Long.MIN_VALUE - bitsB;
+    return Math.abs((double) bitsA - (double) bitsB);
   }
 
   /**
@@ -69,6 +106,9 @@ public class ToleranceStatistics {
     if (Double.isFinite(val + target) && val != -target) {
       relativeTol.accept(Math.abs(target - val) / (Math.abs(val) + Math.abs(target)));
     }
+    if (Double.isFinite(val) && Double.isFinite(target)) {
+      ulpTol.accept(ulpDistance(target, val));
+    }
     return this;
   }
 
@@ -97,12 +137,14 @@ public class ToleranceStatistics {
   public ToleranceStatistics combine(@Nullable final ToleranceStatistics right) {
     if (null == right)
       return this;
-    return new ToleranceStatistics(absoluteTol.combine(right.absoluteTol), relativeTol.combine(right.relativeTol));
+    return new ToleranceStatistics(absoluteTol.combine(right.absoluteTol), relativeTol.combine(right.relativeTol),
+        ulpTol.combine(right.ulpTol));
   }
 
   @Nonnull
   @Override
   public String toString() {
-    return "ToleranceStatistics{" + "absoluteTol=" + absoluteTol + ", relativeTol=" + relativeTol + '}';
+    return "ToleranceStatistics{" + "absoluteTol=" + absoluteTol + ", relativeTol=" + relativeTol + ", ulpTol=" + ulpTol
+        + '}';
   }
 }
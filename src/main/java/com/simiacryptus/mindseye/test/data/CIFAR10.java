@@ -21,6 +21,7 @@ package com.simiacryptus.mindseye.test.data;
 
 import com.simiacryptus.mindseye.lang.Tensor;
 import com.simiacryptus.mindseye.test.TestUtil;
+import com.simiacryptus.ref.lang.RefUtil;
 import com.simiacryptus.ref.wrappers.RefArrays;
 import com.simiacryptus.ref.wrappers.RefList;
 import com.simiacryptus.ref.wrappers.RefStream;
@@ -34,19 +35,30 @@ import org.apache.commons.io.input.BoundedInputStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.awt.image.BufferedImage;
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.zip.GZIPInputStream;
 
 /**
  * The type Cifar 10.
+ * <p>
+ * Records are decoded in parallel chunks by a {@link ChunkedDecoder}, straight into each
+ * tensor's backing array, and queued in file order. The training and test batches are
+ * also available as indexed caches, built once in the {@link DataCache} directory.
  */
 public class CIFAR10 {
 
+  private static final ChunkedDecoder decoder = ChunkedDecoder.create(256);
+  private static final Map<String, LabeledTensorFile> caches = new HashMap<>();
+
   @Nullable
   private static final DataLoader<LabeledObject<Tensor>> training = new DataLoader<LabeledObject<Tensor>>() {
     {
@@ -59,39 +71,7 @@ public class CIFAR10 {
 
     @Override
     protected void read(@Nonnull final RefList<LabeledObject<Tensor>> queue) {
-      try {
-        @Nullable
-        InputStream stream = null;
-        try {
-          stream = Util.cacheStream(TestUtil.S3_ROOT.resolve("cifar-10-binary.tar.gz"));
-        } catch (@Nonnull NoSuchAlgorithmException | KeyManagementException e) {
-          throw Util.throwException(e);
-        }
-        final int recordSize = 3073;
-        @Nonnull final GZIPInputStream inflatedInput = new GZIPInputStream(stream);
-        @Nullable final TarArchiveInputStream tar = new TarArchiveInputStream(inflatedInput);
-        while (0 < inflatedInput.available()) {
-          if (Thread.interrupted()) {
-            break;
-          }
-          final TarArchiveEntry nextTarEntry = tar.getNextTarEntry();
-          if (null == nextTarEntry) {
-            break;
-          }
-          @Nonnull final BinaryChunkIterator iterator = new BinaryChunkIterator(
-              new DataInputStream(new BoundedInputStream(tar, nextTarEntry.getSize())), recordSize);
-          for (final byte[] chunk : (Iterable<byte[]>) () -> iterator) {
-            LabeledObject<BufferedImage> bufferedImageLabeledObject = CIFAR10.toImage(chunk);
-            queue.add(bufferedImageLabeledObject.map(Tensor::fromRGB));
-            bufferedImageLabeledObject.freeRef();
-          }
-          iterator.freeRef();
-        }
-        System.err.println("Done loading");
-      } catch (@Nonnull final IOException e) {
-        e.printStackTrace();
-        throw Util.throwException(e);
-      }
+      CIFAR10.read(RefUtil.wrapInterface((Consumer<LabeledObject<Tensor>>) queue::add, queue.addRef()));
       queue.freeRef();
     }
   };
@@ -115,19 +95,126 @@ public class CIFAR10 {
     return CIFAR10.training.stream();
   }
 
+  /**
+   * Creates a loader that streams the training set through a bounded prefetch buffer
+   * instead of holding all of it.
+   *
+   * @param depth the prefetch depth
+   * @return the prefetching loader
+   */
+  @Nonnull
+  public static PrefetchingLoader<LabeledObject<Tensor>> trainingLoader(final int depth) {
+    return new PrefetchingLoader<LabeledObject<Tensor>>(depth) {
+      @Override
+      protected void read(@Nonnull final Consumer<LabeledObject<Tensor>> sink) {
+        CIFAR10.read(sink);
+      }
+    };
+  }
+
+  /**
+   * Gets the indexed training set (the data_batch files), building its cache on first use.
+   * Unlike {@link #trainingDataStream()}, which decodes every record in the archive, this
+   * leaves out the 10,000 test_batch records; those are in {@link #getTestCache()}.
+   *
+   * @return the labeled tensor file
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  public static LabeledTensorFile getTrainingCache() throws IOException {
+    return CIFAR10.getCache("train", name -> name.contains("data_batch_"));
+  }
+
+  /**
+   * Gets the indexed test set (the test_batch file), building its cache on first use.
+   *
+   * @return the labeled tensor file
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  public static LabeledTensorFile getTestCache() throws IOException {
+    return CIFAR10.getCache("test", name -> name.endsWith("test_batch.bin"));
+  }
+
+  @Nonnull
+  private static synchronized LabeledTensorFile getCache(@Nonnull final String name,
+                                                         @Nonnull final Predicate<String> entries) throws IOException {
+    LabeledTensorFile cache = caches.get(name);
+    if (null == cache) {
+      final File file = DataCache.getFile("cifar10-" + name + ".bin");
+      DataCache.build(file, temp -> {
+        try (LabeledTensorFile.Writer writer = new LabeledTensorFile.Writer(temp)) {
+          if (!CIFAR10.read(entries, writer))
+            throw new IOException("Interrupted while building " + file);
+        }
+      });
+      cache = LabeledTensorFile.open(file);
+      caches.put(name, cache);
+    }
+    return cache;
+  }
+
+  private static void read(@Nonnull final Consumer<LabeledObject<Tensor>> sink) {
+    CIFAR10.read(name -> true, sink);
+  }
+
+  private static boolean read(@Nonnull final Predicate<String> entries,
+                              @Nonnull final Consumer<LabeledObject<Tensor>> sink) {
+    try {
+      @Nullable
+      InputStream stream = null;
+      try {
+        stream = Util.cacheStream(TestUtil.S3_ROOT.resolve("cifar-10-binary.tar.gz"));
+      } catch (@Nonnull NoSuchAlgorithmException | KeyManagementException e) {
+        throw Util.throwException(e);
+      }
+      final int recordSize = 3073;
+      @Nonnull final GZIPInputStream inflatedInput = new GZIPInputStream(stream);
+      @Nullable final TarArchiveInputStream tar = new TarArchiveInputStream(inflatedInput);
+      while (0 < inflatedInput.available()) {
+        if (Thread.interrupted()) {
+          return false;
+        }
+        final TarArchiveEntry nextTarEntry = tar.getNextTarEntry();
+        if (null == nextTarEntry) {
+          break;
+        }
+        if (!entries.test(nextTarEntry.getName())) {
+          continue;
+        }
+        @Nonnull final BinaryChunkIterator iterator = new BinaryChunkIterator(
+            new DataInputStream(new BoundedInputStream(tar, nextTarEntry.getSize())), recordSize);
+        CIFAR10.decoder.decode(iterator, CIFAR10::toTensor, sink);
+        iterator.freeRef();
+      }
+      System.err.println("Done loading");
+      return true;
+    } catch (@Nonnull final IOException e) {
+      e.printStackTrace();
+      throw Util.throwException(e);
+    }
+  }
+
+  /**
+   * Decodes one 3073-byte record: a label byte, then the red, green and blue planes. The
+   * planes are copied into the channel order {@link Tensor#fromRGB} produces, which puts
+   * the low byte of the packed RGB value in channel 0.
+   *
+   * @param b the record
+   * @return the labeled tensor
+   */
   @Nonnull
-  private static LabeledObject<BufferedImage> toImage(final byte[] b) {
-    @Nonnull final BufferedImage img = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
-    for (int x = 0; x < img.getWidth(); x++) {
-      for (int y = 0; y < img.getHeight(); y++) {
-        final int red = 0xFF & b[1 + 1024 * 0 + x + y * 32];
-        final int blue = 0xFF & b[1 + 1024 * 1 + x + y * 32];
-        final int green = 0xFF & b[1 + 1024 * 2 + x + y * 32];
-        final int c = (red << 16) + (blue << 8) + green;
-        img.setRGB(x, y, c);
+  static LabeledObject<Tensor> toTensor(final byte[] b) {
+    final Tensor tensor = new Tensor(32, 32, 3);
+    final double[] values = tensor.getData();
+    for (int c = 0; c < 3; c++) {
+      final int plane = 1 + 1024 * (2 - c);
+      final int offset = 1024 * c;
+      for (int i = 0; i < 1024; i++) {
+        values[offset + i] = 0xFF & b[plane + i];
       }
     }
-    return new LabeledObject<>(img, RefArrays.toString(new byte[]{b[0]}));
+    return new LabeledObject<>(tensor, RefArrays.toString(new byte[]{b[0]}));
   }
 
 }
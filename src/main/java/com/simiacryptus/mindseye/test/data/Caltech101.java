@@ -19,7 +19,10 @@
 
 package com.simiacryptus.mindseye.test.data;
 
+import com.simiacryptus.mindseye.lang.Tensor;
 import com.simiacryptus.mindseye.test.TestUtil;
+import com.simiacryptus.mindseye.util.ImageUtil;
+import com.simiacryptus.ref.lang.RefUtil;
 import com.simiacryptus.ref.wrappers.RefList;
 import com.simiacryptus.ref.wrappers.RefStream;
 import com.simiacryptus.util.Util;
@@ -33,18 +36,29 @@ import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 /**
  * The type Caltech 101.
+ * <p>
+ * Besides the raw images, {@link #getCache(int)} keeps a {@link LabeledTensorFile} per
+ * image size in the {@link DataCache} directory, so the images are only decoded and
+ * resized once.
  */
 public class Caltech101 {
 
+  private static final ChunkedDecoder decoder = ChunkedDecoder.create(16);
+  private static final Map<Integer, LabeledTensorFile> caches = new HashMap<>();
+
   @Nullable
   private static final DataLoader<LabeledObject<WeakCachedSupplier<BufferedImage>>> training = new DataLoader<LabeledObject<WeakCachedSupplier<BufferedImage>>>() {
     public @SuppressWarnings("unused")
@@ -54,47 +68,7 @@ public class Caltech101 {
 
     @Override
     protected void read(@Nonnull final RefList<LabeledObject<WeakCachedSupplier<BufferedImage>>> queue) {
-      try {
-        @Nullable
-        InputStream stream = null;
-        try {
-          // Repackaging as a zip is needed - the tar format classes dont work here
-          stream = Util.cacheStream(TestUtil.S3_ROOT.resolve("101_ObjectCategories.zip"));
-        } catch (@Nonnull NoSuchAlgorithmException | KeyManagementException e) {
-          throw Util.throwException(e);
-        }
-        final boolean continueLoop = true;
-        @Nullable final ZipInputStream tar = new ZipInputStream(stream);
-        while (true) {
-          if (Thread.interrupted()) {
-            break;
-          }
-          final ZipEntry entry = tar.getNextEntry();
-          if (null == entry) {
-            System.err.println("Null Entry");
-            break;
-          }
-          if (0 == entry.getSize()) {
-            continue;
-          }
-          final String category = entry.getName().split("/")[1];
-          //com.simiacryptus.ref.wrappers.System.err.println(String.format("%s -> %s (%s)", entry.getName(), category, entry.getImageSize()));
-          final byte[] data = IOUtils.toByteArray(tar, entry.getSize());
-          if (!entry.getName().toLowerCase().endsWith(".jpg")) {
-            continue;
-          }
-          queue.add(new LabeledObject<>(new WeakCachedSupplier<>(() -> {
-            try {
-              return ImageIO.read(new ByteArrayInputStream(data));
-            } catch (@Nonnull final IOException e) {
-              throw Util.throwException(e);
-            }
-          }), category));
-        }
-      } catch (@Nonnull final IOException e) {
-        e.printStackTrace();
-        throw Util.throwException(e);
-      }
+      Caltech101.read(RefUtil.wrapInterface((Consumer<LabeledObject<WeakCachedSupplier<BufferedImage>>>) queue::add, queue.addRef()));
       queue.freeRef();
     }
   };
@@ -118,4 +92,109 @@ public class Caltech101 {
     return Caltech101.training.stream();
   }
 
+  /**
+   * Creates a loader that streams the images through a bounded prefetch buffer, so only
+   * that many encoded images are held at a time.
+   *
+   * @param depth the prefetch depth
+   * @return the prefetching loader
+   */
+  @Nonnull
+  public static PrefetchingLoader<LabeledObject<WeakCachedSupplier<BufferedImage>>> trainingLoader(final int depth) {
+    return new PrefetchingLoader<LabeledObject<WeakCachedSupplier<BufferedImage>>>(depth) {
+      @Override
+      protected void read(@Nonnull final Consumer<LabeledObject<WeakCachedSupplier<BufferedImage>>> sink) {
+        Caltech101.read(sink);
+      }
+    };
+  }
+
+  /**
+   * Gets the cache of images resized to a width, building it on first use by decoding and
+   * resizing every image in parallel.
+   *
+   * @param imageSize the image size
+   * @return the labeled tensor file
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  public static synchronized LabeledTensorFile getCache(final int imageSize) throws IOException {
+    LabeledTensorFile cache = caches.get(imageSize);
+    if (null == cache) {
+      final File file = DataCache.getFile("caltech101-" + imageSize + ".bin");
+      DataCache.build(file, temp -> {
+        try (LabeledTensorFile.Writer writer = new LabeledTensorFile.Writer(temp)) {
+          final ChunkedDecoder.Pipeline<LabeledObject<WeakCachedSupplier<BufferedImage>>, LabeledObject<Tensor>> pipeline = decoder
+              .open(item -> Caltech101.resize(item, imageSize), writer);
+          try {
+            if (!Caltech101.read(pipeline))
+              throw new IOException("Interrupted while building " + file);
+            pipeline.finish();
+          } finally {
+            pipeline.cancel();
+          }
+        }
+      });
+      cache = LabeledTensorFile.open(file);
+      caches.put(imageSize, cache);
+    }
+    return cache;
+  }
+
+  @Nonnull
+  private static LabeledObject<Tensor> resize(@Nonnull final LabeledObject<WeakCachedSupplier<BufferedImage>> item, final int imageSize) {
+    LabeledObject<Tensor> resized = item.map(y -> {
+      BufferedImage image = y.get();
+      Tensor tensor = Tensor.fromRGB(ImageUtil.resize(image, imageSize));
+      y.freeRef();
+      return tensor;
+    });
+    item.freeRef();
+    return resized;
+  }
+
+  private static boolean read(@Nonnull final Consumer<LabeledObject<WeakCachedSupplier<BufferedImage>>> sink) {
+    try {
+      @Nullable
+      InputStream stream = null;
+      try {
+        // Repackaging as a zip is needed - the tar format classes dont work here
+        stream = Util.cacheStream(TestUtil.S3_ROOT.resolve("101_ObjectCategories.zip"));
+      } catch (@Nonnull NoSuchAlgorithmException | KeyManagementException e) {
+        throw Util.throwException(e);
+      }
+      final boolean continueLoop = true;
+      @Nullable final ZipInputStream tar = new ZipInputStream(stream);
+      while (true) {
+        if (Thread.interrupted()) {
+          return false;
+        }
+        final ZipEntry entry = tar.getNextEntry();
+        if (null == entry) {
+          System.err.println("Null Entry");
+          return true;
+        }
+        if (0 == entry.getSize()) {
+          continue;
+        }
+        final String category = entry.getName().split("/")[1];
+        //com.simiacryptus.ref.wrappers.System.err.println(String.format("%s -> %s (%s)", entry.getName(), category, entry.getImageSize()));
+        final byte[] data = IOUtils.toByteArray(tar, entry.getSize());
+        if (!entry.getName().toLowerCase().endsWith(".jpg")) {
+          continue;
+        }
+        sink.accept(new LabeledObject<>(new WeakCachedSupplier<>(() -> {
+          try {
+            return ImageIO.read(new ByteArrayInputStream(data));
+          } catch (@Nonnull final IOException e) {
+            throw Util.throwException(e);
+          }
+        }), category));
+      }
+    } catch (@Nonnull final IOException e) {
+      e.printStackTrace();
+      throw Util.throwException(e);
+    }
+  }
+
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test.data;
+
+import com.simiacryptus.ref.lang.RefUtil;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Decodes a stream of raw records in parallel without reordering it.
+ * <p>
+ * The caller's thread reads records, from an iterator or pushed through a
+ * {@link Pipeline}, into fixed-size chunks and submits each chunk to a fork-join pool,
+ * keeping at most {@link #getWindow()} chunks in flight. Decoded chunks are handed to the
+ * sink on the caller's thread strictly in submission order, so the output order matches
+ * the input order while reading, decoding and consuming overlap.
+ */
+public class ChunkedDecoder {
+  @Nonnull
+  private final ForkJoinPool pool;
+  private final int chunkSize;
+  private final int window;
+
+  /**
+   * Instantiates a new Chunked decoder.
+   *
+   * @param pool      the pool
+   * @param chunkSize the number of records decoded per task
+   * @param window    the number of chunks in flight
+   */
+  public ChunkedDecoder(@Nonnull final ForkJoinPool pool, final int chunkSize, final int window) {
+    if (chunkSize < 1 || window < 1)
+      throw new IllegalArgumentException("chunkSize and window must be positive");
+    this.pool = pool;
+    this.chunkSize = chunkSize;
+    this.window = window;
+  }
+
+  /**
+   * Gets a decoder on the common pool, with two chunks in flight per worker.
+   *
+   * @param chunkSize the chunk size
+   * @return the chunked decoder
+   */
+  @Nonnull
+  public static ChunkedDecoder create(final int chunkSize) {
+    final ForkJoinPool pool = ForkJoinPool.commonPool();
+    return new ChunkedDecoder(pool, chunkSize, 2 * pool.getParallelism());
+  }
+
+  /**
+   * Gets chunk size.
+   *
+   * @return the chunk size
+   */
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Gets window.
+   *
+   * @return the window
+   */
+  public int getWindow() {
+    return window;
+  }
+
+  /**
+   * Decodes every record and passes the results to the sink in record order. Stops early,
+   * without error, if the calling thread is interrupted.
+   *
+   * @param <I>     the record type
+   * @param <T>     the decoded type
+   * @param records the records
+   * @param decoder the decoder
+   * @param sink    the sink
+   */
+  public <I, T> void decode(@Nonnull final Iterator<I> records, @Nonnull final Function<I, T> decoder,
+                            @Nonnull final Consumer<T> sink) {
+    final Pipeline<I, T> pipeline = open(decoder, sink);
+    try {
+      while (records.hasNext() && !Thread.currentThread().isInterrupted()) {
+        pipeline.accept(records.next());
+      }
+      pipeline.finish();
+    } finally {
+      pipeline.cancel();
+    }
+  }
+
+  /**
+   * Opens a pipeline for a producer that pushes records rather than being iterated.
+   *
+   * @param <I>     the record type
+   * @param <T>     the decoded type
+   * @param decoder the decoder
+   * @param sink    the sink
+   * @return the pipeline
+   */
+  @Nonnull
+  public <I, T> Pipeline<I, T> open(@Nonnull final Function<I, T> decoder, @Nonnull final Consumer<T> sink) {
+    return new Pipeline<>(decoder, sink);
+  }
+
+  private static <T> void emit(@Nonnull final Object[] decoded, @Nonnull final Consumer<T> sink) {
+    for (Object item : decoded) {
+      sink.accept((T) item);
+    }
+  }
+
+  /**
+   * Accepts records one at a time on the producer's thread, decodes them in chunks on the
+   * pool and passes the results to the sink, in order, on the same thread.
+   *
+   * @param <I> the record type
+   * @param <T> the decoded type
+   */
+  public class Pipeline<I, T> implements Consumer<I> {
+    @Nonnull
+    private final Function<I, T> decoder;
+    @Nonnull
+    private final Consumer<T> sink;
+    private final ArrayDeque<ForkJoinTask<Object[]>> pending = new ArrayDeque<>();
+    private Object[] chunk = new Object[chunkSize];
+    private int length = 0;
+    private volatile boolean cancelled = false;
+
+    private Pipeline(@Nonnull final Function<I, T> decoder, @Nonnull final Consumer<T> sink) {
+      this.decoder = decoder;
+      this.sink = sink;
+    }
+
+    @Override
+    public void accept(final I record) {
+      chunk[length++] = record;
+      if (length == chunkSize)
+        submit();
+    }
+
+    /**
+     * Decodes any partial chunk and waits until every result has reached the sink.
+     */
+    public void finish() {
+      if (0 < length)
+        submit();
+      while (!pending.isEmpty()) {
+        emit(pending.poll().join(), sink);
+      }
+    }
+
+    /**
+     * Abandons any chunks still in flight. Chunks stop decoding at the next record, and
+     * whatever they had already decoded is freed rather than passed to the sink.
+     */
+    public void cancel() {
+      // Tasks are joined rather than cancelled, since a cancelled fork-join task that is
+      // already running would still decode its chunk and its results could not be freed
+      cancelled = true;
+      while (!pending.isEmpty()) {
+        final ForkJoinTask<Object[]> task = pending.poll();
+        try {
+          RefUtil.freeRef(task.join());
+        } catch (RuntimeException e) {
+          // A chunk whose decoder failed has nothing left to free
+        }
+      }
+    }
+
+    private void submit() {
+      final Object[] records = chunk;
+      final int count = length;
+      chunk = new Object[chunkSize];
+      length = 0;
+      pending.add(pool.submit(() -> {
+        final Object[] decoded = new Object[count];
+        for (int i = 0; i < count && !cancelled; i++) {
+          decoded[i] = decoder.apply((I) records[i]);
+        }
+        return decoded;
+      }));
+      if (pending.size() >= window)
+        emit(pending.poll().join(), sink);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test.data;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Locates and builds the preprocessed dataset files shared by the data loaders.
+ */
+public final class DataCache {
+
+  private DataCache() {
+  }
+
+  /**
+   * Gets the directory holding the preprocessed dataset caches: the mindseye.data.cache
+   * system property, or mindseye-data under the temporary directory.
+   *
+   * @return the cache dir
+   */
+  @Nonnull
+  public static File getCacheDir() {
+    final String dir = System.getProperty("mindseye.data.cache");
+    if (null != dir)
+      return new File(dir);
+    return new File(System.getProperty("java.io.tmpdir"), "mindseye-data");
+  }
+
+  /**
+   * Gets a file in the cache directory.
+   *
+   * @param name the name
+   * @return the file
+   */
+  @Nonnull
+  public static File getFile(@Nonnull final String name) {
+    return new File(getCacheDir(), name);
+  }
+
+  /**
+   * Builds a cache file if it does not exist yet. The builder writes to a temporary file
+   * that is moved into place once complete, so a reader never sees a partial cache.
+   *
+   * @param file    the file
+   * @param builder the builder
+   * @throws IOException the io exception
+   */
+  public static void build(@Nonnull final File file, @Nonnull final Builder builder) throws IOException {
+    if (file.exists())
+      return;
+    final File parent = file.getAbsoluteFile().getParentFile();
+    if (null != parent)
+      parent.mkdirs();
+    final File temp = File.createTempFile(file.getName(), ".tmp", parent);
+    try {
+      builder.write(temp);
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      temp.delete();
+    }
+  }
+
+  /**
+   * Writes the contents of a cache file.
+   */
+  public interface Builder {
+    /**
+     * Write.
+     *
+     * @param file the file
+     * @throws IOException the io exception
+     */
+    void write(@Nonnull File file) throws IOException;
+  }
+}
@@ -20,6 +20,8 @@
 package com.simiacryptus.mindseye.test.data;
 
 import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.test.TestSeeds;
+import com.simiacryptus.ref.lang.RefUtil;
 import com.simiacryptus.ref.wrappers.RefArrayList;
 import com.simiacryptus.ref.wrappers.RefList;
 import com.simiacryptus.util.Util;
@@ -28,13 +30,18 @@ import com.simiacryptus.util.io.DataLoader;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -44,7 +51,9 @@ import java.util.stream.Stream;
 public class ImageTiles {
 
   /**
-   * Read tensor.
+   * Read tensor. The tile's pixels are fetched with one bulk getRGB call and unpacked
+   * straight into the tensor's backing array, whose width x height x 3 layout puts the
+   * red, green and blue planes one after another in the same row-major pixel order.
    *
    * @param image  the image
    * @param width  the width
@@ -56,14 +65,32 @@ public class ImageTiles {
   @Nonnull
   public static Tensor read(@Nonnull final BufferedImage image, final int width, final int height, final int x,
                             final int y) {
+    return ImageTiles.read(image, width, height, x, y, new int[width * height]);
+  }
+
+  /**
+   * Read tensor, reusing a pixel buffer of at least width x height entries.
+   *
+   * @param image  the image
+   * @param width  the width
+   * @param height the height
+   * @param x      the x
+   * @param y      the y
+   * @param pixels the pixels
+   * @return the tensor
+   */
+  @Nonnull
+  public static Tensor read(@Nonnull final BufferedImage image, final int width, final int height, final int x,
+                            final int y, @Nonnull final int[] pixels) {
+    image.getRGB(x, y, width, height, pixels, 0, width);
     @Nonnull final Tensor tensor = new Tensor(width, height, 3);
-    for (int xx = 0; xx < width; xx++) {
-      for (int yy = 0; yy < height; yy++) {
-        @Nonnull final Color rgb = new Color(image.getRGB(x + xx, y + yy));
-        tensor.set(new int[]{xx, yy, 0}, rgb.getRed());
-        tensor.set(new int[]{xx, yy, 1}, rgb.getGreen());
-        tensor.set(new int[]{xx, yy, 2}, rgb.getBlue());
-      }
+    final double[] values = tensor.getData();
+    final int plane = width * height;
+    for (int i = 0; i < plane; i++) {
+      final int rgb = pixels[i];
+      values[i] = rgb >> 16 & 0xFF;
+      values[plane + i] = rgb >> 8 & 0xFF;
+      values[2 * plane + i] = rgb & 0xFF;
     }
     return tensor;
   }
@@ -81,6 +108,20 @@ public class ImageTiles {
     return Arrays.stream(dir.listFiles()).flatMap(ImageTiles::readFiles);
   }
 
+  /**
+   * Lists every regular file under a directory with a single tree walk.
+   *
+   * @param dir the dir
+   * @return the list
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  public static List<File> walkFiles(@Nonnull final File dir) throws IOException {
+    try (Stream<Path> paths = Files.walk(dir.toPath())) {
+      return new ArrayList<>(paths.filter(Files::isRegularFile).map(Path::toFile).collect(Collectors.toList()));
+    }
+  }
+
   /**
    * Tiles rgb tensor [ ].
    *
@@ -122,20 +163,21 @@ public class ImageTiles {
   @Nonnull
   public static Tensor[] tilesRgb(@Nonnull final BufferedImage image, final int width, final int height,
                                   final int xStep, final int yStep) {
-    @Nonnull final RefList<Tensor> tensors = new RefArrayList<>();
-    for (int y = 0; y < image.getHeight(); y += yStep) {
-      for (int x = 0; x < image.getWidth(); x += xStep) {
-        try {
-          @Nonnull final Tensor tensor = ImageTiles.read(image, width, height, y, x);
-          tensors.add(tensor);
-        } catch (@Nonnull final ArrayIndexOutOfBoundsException e) {
-          // Ignore
-        }
+    final int xLimit = image.getWidth() - width;
+    final int yLimit = image.getHeight() - height;
+    if (xLimit < 0 || yLimit < 0)
+      return new Tensor[]{};
+    final int cols = xLimit / xStep + 1;
+    final int rows = yLimit / yStep + 1;
+    @Nonnull final Tensor[] tensors = new Tensor[rows * cols];
+    final int[] pixels = new int[width * height];
+    // Column by column, the order tiles have always been returned in
+    for (int col = 0; col < cols; col++) {
+      for (int row = 0; row < rows; row++) {
+        tensors[col * rows + row] = ImageTiles.read(image, width, height, col * xStep, row * yStep, pixels);
       }
     }
-    Tensor[] temp_17_0001 = tensors.toArray(new Tensor[]{});
-    tensors.freeRef();
-    return temp_17_0001;
+    return tensors;
   }
 
   /**
@@ -167,9 +209,10 @@ public class ImageTiles {
       }
       final int xStep = xMax / cols;
       final int yStep = yMax / rows;
+      final int[] pixels = new int[tileWidth * tileHeight];
       for (int x = 0; x < xMax; x += xStep) {
         for (int y = 0; y < yMax; y += yStep) {
-          queue.add(ImageTiles.read(image, tileWidth, tileHeight, x, y));
+          queue.add(ImageTiles.read(image, tileWidth, tileHeight, x, y, pixels));
         }
       }
     }
@@ -230,6 +273,8 @@ public class ImageTiles {
      * The Tile width.
      */
     public final int tileWidth;
+    private int parallelism = 1;
+    private int shuffleBuffer = 0;
 
     /**
      * Instantiates a new Image tensor loader.
@@ -265,23 +310,238 @@ public class ImageTiles {
       return (ImageTensorLoader) super.addRef();
     }
 
+    /**
+     * Creates a loader over the same directory that streams tiles through a bounded
+     * prefetch buffer instead of holding every tile.
+     *
+     * @param depth the prefetch depth
+     * @return the prefetching loader
+     */
+    @Nonnull
+    public PrefetchingLoader<Tensor> prefetching(final int depth) {
+      return new PrefetchingLoader<Tensor>(depth) {
+        @Override
+        protected void read(@Nonnull final Consumer<Tensor> sink) {
+          readTiles(sink);
+        }
+      };
+    }
+
     @Override
     protected void read(@Nonnull final RefList<Tensor> queue) {
-      @Nonnull final ArrayList<File> files = new ArrayList<>(
-          ImageTiles.readFiles(parentDirectiory).collect(Collectors.toList()));
-      Collections.shuffle(files);
+      readTiles(RefUtil.wrapInterface((Consumer<Tensor>) queue::add, queue.addRef()));
+      queue.freeRef();
+    }
+
+    /**
+     * Gets parallelism.
+     *
+     * @return the parallelism
+     */
+    public int getParallelism() {
+      return parallelism;
+    }
+
+    /**
+     * Sets the number of worker threads decoding and tiling files. With more than one,
+     * the tree is listed with a single walk, files are tiled concurrently with a bounded
+     * number in flight, and tiles are emitted in the order their files finish.
+     *
+     * @param parallelism the parallelism
+     * @return the parallelism
+     */
+    @Nonnull
+    public ImageTensorLoader setParallelism(final int parallelism) {
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    /**
+     * Gets shuffle buffer.
+     *
+     * @return the shuffle buffer
+     */
+    public int getShuffleBuffer() {
+      return shuffleBuffer;
+    }
+
+    /**
+     * Sets the size of a buffer used to shuffle individual tiles, so that tiles from one
+     * image are spread out instead of arriving together. Zero disables it.
+     *
+     * @param shuffleBuffer the shuffle buffer
+     * @return the shuffle buffer
+     */
+    @Nonnull
+    public ImageTensorLoader setShuffleBuffer(final int shuffleBuffer) {
+      this.shuffleBuffer = shuffleBuffer;
+      return this;
+    }
+
+    private void readTiles(@Nonnull final Consumer<Tensor> sink) {
+      if (0 < shuffleBuffer) {
+        final ShuffleBuffer buffer = new ShuffleBuffer(shuffleBuffer, sink);
+        readAll(buffer);
+        buffer.flush();
+      } else {
+        readAll(sink);
+      }
+    }
+
+    private void readAll(@Nonnull final Consumer<Tensor> sink) {
+      if (1 < parallelism) {
+        readParallel(sink);
+        return;
+      }
+      @Nonnull final List<File> files = shuffle(new ArrayList<>(
+          ImageTiles.readFiles(parentDirectiory).collect(Collectors.toList())));
       for (@Nonnull final File f : files) {
         if (Thread.interrupted()) {
           break;
         }
         try {
-          queue.addAll(ImageTiles.toTiles(f, tileWidth, tileHeight, minSpacingWidth, minSpacingHeight, maxTileCols,
-              maxTileRows));
-        } catch (@Nonnull final Throwable e) {
+          accept(tiles(f), sink);
+        } catch (@Nonnull final IOException e) {
           throw Util.throwException(e);
         }
       }
-      queue.freeRef();
+    }
+
+    private void readParallel(@Nonnull final Consumer<Tensor> sink) {
+      final ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+      final ExecutorCompletionService<Tensor[]> completion = new ExecutorCompletionService<>(pool);
+      int inFlight = 0;
+      try {
+        final Iterator<File> remaining = shuffle(ImageTiles.walkFiles(parentDirectiory)).iterator();
+        while (inFlight < 2 * parallelism && remaining.hasNext()) {
+          final File file = remaining.next();
+          completion.submit(() -> tiles(file));
+          inFlight++;
+        }
+        while (0 < inFlight) {
+          final Future<Tensor[]> done = completion.take();
+          inFlight--;
+          final Tensor[] tiles = done.get();
+          if (remaining.hasNext()) {
+            final File file = remaining.next();
+            completion.submit(() -> tiles(file));
+            inFlight++;
+          }
+          accept(tiles, sink);
+        }
+      } catch (@Nonnull final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (@Nonnull final ExecutionException e) {
+        throw Util.throwException(e.getCause());
+      } catch (@Nonnull final IOException e) {
+        throw Util.throwException(e);
+      } finally {
+        // Tasks that never started are dropped; the rest still complete and their tiles are freed
+        inFlight -= pool.shutdownNow().size();
+        freePending(completion, inFlight);
+      }
+    }
+
+    @Nonnull
+    private static List<File> shuffle(@Nonnull final List<File> files) {
+      // Sorted first, since directory listing order varies, so a fixed seed gives a fixed order
+      files.sort(Comparator.comparing(File::getPath));
+      Collections.shuffle(files, new Random(TestSeeds.seed(ImageTensorLoader.class.getName())));
+      return files;
+    }
+
+    private static void accept(@Nonnull final Tensor[] tiles, @Nonnull final Consumer<Tensor> sink) {
+      try {
+        for (int i = 0; i < tiles.length; i++) {
+          final Tensor tile = tiles[i];
+          tiles[i] = null;
+          sink.accept(tile);
+        }
+      } finally {
+        for (Tensor tile : tiles) {
+          if (null != tile)
+            tile.freeRef();
+        }
+      }
+    }
+
+    private static void freePending(@Nonnull final ExecutorCompletionService<Tensor[]> completion, int pending) {
+      boolean interrupted = Thread.interrupted();
+      try {
+        while (0 < pending) {
+          try {
+            final Future<Tensor[]> done = completion.take();
+            pending--;
+            try {
+              for (Tensor tile : done.get()) {
+                tile.freeRef();
+              }
+            } catch (@Nonnull final ExecutionException e) {
+              // A failed task produced no tiles
+            }
+          } catch (@Nonnull final InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      } finally {
+        if (interrupted)
+          Thread.currentThread().interrupt();
+      }
+    }
+
+    @Nonnull
+    private Tensor[] tiles(@Nonnull final File file) throws IOException {
+      final RefList<Tensor> tiles = ImageTiles.toTiles(file, tileWidth, tileHeight, minSpacingWidth, minSpacingHeight,
+          maxTileCols, maxTileRows);
+      final Tensor[] array = tiles.toArray(new Tensor[]{});
+      tiles.freeRef();
+      return array;
+    }
+
+    private static class ShuffleBuffer implements Consumer<Tensor> {
+      @Nonnull
+      private final Tensor[] buffer;
+      @Nonnull
+      private final Consumer<Tensor> sink;
+      private final SplittableRandom random = TestSeeds.random(ShuffleBuffer.class.getName());
+      private int size = 0;
+
+      /**
+       * Instantiates a new Shuffle buffer.
+       *
+       * @param capacity the capacity
+       * @param sink     the sink
+       */
+      ShuffleBuffer(final int capacity, @Nonnull final Consumer<Tensor> sink) {
+        this.buffer = new Tensor[capacity];
+        this.sink = sink;
+      }
+
+      @Override
+      public void accept(@Nonnull final Tensor tile) {
+        if (size < buffer.length) {
+          buffer[size++] = tile;
+          return;
+        }
+        final int index = random.nextInt(buffer.length);
+        final Tensor out = buffer[index];
+        buffer[index] = tile;
+        sink.accept(out);
+      }
+
+      /**
+       * Emits every buffered tile in random order.
+       */
+      void flush() {
+        for (int i = size - 1; i >= 0; i--) {
+          final int index = random.nextInt(i + 1);
+          final Tensor out = buffer[index];
+          buffer[index] = buffer[i];
+          buffer[i] = null;
+          sink.accept(out);
+        }
+        size = 0;
+      }
     }
   }
 }
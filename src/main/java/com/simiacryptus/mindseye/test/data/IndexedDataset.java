@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test.data;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.ref.wrappers.RefIntStream;
+import com.simiacryptus.ref.wrappers.RefStream;
+import com.simiacryptus.util.test.LabeledObject;
+
+import javax.annotation.Nonnull;
+import java.util.SplittableRandom;
+
+/**
+ * A labeled image dataset with random access by record number, backed by a record file
+ * with a fixed stride or an offset index. Any record, range or permutation can be decoded
+ * without touching the rest, and labels can be read without decoding images.
+ */
+public interface IndexedDataset {
+  /**
+   * Size int.
+   *
+   * @return the int
+   */
+  int size();
+
+  /**
+   * Gets the label of one record without decoding it.
+   *
+   * @param index the index
+   * @return the label
+   */
+  @Nonnull
+  String getLabel(int index);
+
+  /**
+   * Decodes one record.
+   *
+   * @param index the index
+   * @return the labeled object
+   */
+  @Nonnull
+  LabeledObject<Tensor> get(int index);
+
+  /**
+   * Decodes a contiguous range of records.
+   *
+   * @param from the first record, inclusive
+   * @param to   the last record, exclusive
+   * @return the labeled object [ ]
+   */
+  @Nonnull
+  @SuppressWarnings("unchecked")
+  default LabeledObject<Tensor>[] range(final int from, final int to) {
+    final LabeledObject<Tensor>[] records = new LabeledObject[to - from];
+    for (int i = 0; i < records.length; i++) {
+      records[i] = get(from + i);
+    }
+    return records;
+  }
+
+  /**
+   * Gets a shuffled order of every record number. The same seed always gives the same
+   * order.
+   *
+   * @param seed the seed
+   * @return the int [ ]
+   */
+  @Nonnull
+  default int[] permutation(final long seed) {
+    final int[] order = new int[size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    final SplittableRandom random = new SplittableRandom(seed);
+    for (int i = order.length - 1; i > 0; i--) {
+      final int j = random.nextInt(i + 1);
+      final int swap = order[i];
+      order[i] = order[j];
+      order[j] = swap;
+    }
+    return order;
+  }
+
+  /**
+   * Gets shard k of n: every n-th record, starting at record k. Striding rather than
+   * splitting into contiguous ranges keeps the shards balanced across labels even when
+   * records are stored grouped by label. The shards of one dataset are disjoint, together
+   * cover every record, and are the same in every process, and a shard decodes only its
+   * own records.
+   *
+   * @param index the shard index, from 0
+   * @param count the shard count
+   * @return the indexed dataset
+   */
+  @Nonnull
+  default IndexedDataset shard(final int index, final int count) {
+    if (count < 1 || index < 0 || index >= count)
+      throw new IllegalArgumentException(String.format("Invalid shard %d of %d", index, count));
+    if (count == 1)
+      return this;
+    return new Shard(this, index, count);
+  }
+
+  /**
+   * Streams every record in order, decoding each as it is reached.
+   *
+   * @return the ref stream
+   */
+  @Nonnull
+  default RefStream<LabeledObject<Tensor>> stream() {
+    return RefIntStream.range(0, size()).mapToObj(this::get);
+  }
+
+  /**
+   * Streams the given records, in the given order, decoding each as it is reached.
+   *
+   * @param indices the indices
+   * @return the ref stream
+   */
+  @Nonnull
+  default RefStream<LabeledObject<Tensor>> stream(@Nonnull final int[] indices) {
+    return RefIntStream.range(0, indices.length).mapToObj(i -> get(indices[i]));
+  }
+
+  /**
+   * One shard of a dataset, mapping shard record i to parent record index + i * count.
+   */
+  final class Shard implements IndexedDataset {
+    @Nonnull
+    private final IndexedDataset parent;
+    private final int index;
+    private final int count;
+
+    /**
+     * Instantiates a new Shard.
+     *
+     * @param parent the parent
+     * @param index  the index
+     * @param count  the count
+     */
+    Shard(@Nonnull final IndexedDataset parent, final int index, final int count) {
+      this.parent = parent;
+      this.index = index;
+      this.count = count;
+    }
+
+    @Override
+    public int size() {
+      return (parent.size() - index + count - 1) / count;
+    }
+
+    @Nonnull
+    @Override
+    public String getLabel(final int index) {
+      return parent.getLabel(this.index + index * count);
+    }
+
+    @Nonnull
+    @Override
+    public LabeledObject<Tensor> get(final int index) {
+      return parent.get(this.index + index * count);
+    }
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test.data;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.util.Util;
+import com.simiacryptus.util.test.LabeledObject;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A compact file of labeled 8-bit image tensors, such as decoded and resized photos.
+ * <p>
+ * Layout, little-endian: a header of magic, version, record count, label count and the
+ * offsets of the label table and the index; the records; the label table; then the
+ * index, holding each record's offset and label number. A record is its rank, its
+ * dimensions and one unsigned byte per value, so pixel values are stored rounded and
+ * clamped to 0..255. The header, labels and index are read when the file is opened;
+ * records are read on demand with positional reads, so any number of threads can
+ * decode them at once.
+ */
+public class LabeledTensorFile implements IndexedDataset, AutoCloseable {
+  private static final int MAGIC = 0x4C54454E;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+
+  @Nonnull
+  private final FileChannel channel;
+  @Nonnull
+  private final long[] offsets;
+  @Nonnull
+  private final int[] labelIds;
+  @Nonnull
+  private final String[] labels;
+
+  private LabeledTensorFile(@Nonnull final FileChannel channel, @Nonnull final long[] offsets,
+                            @Nonnull final int[] labelIds, @Nonnull final String[] labels) {
+    this.channel = channel;
+    this.offsets = offsets;
+    this.labelIds = labelIds;
+    this.labels = labels;
+  }
+
+  /**
+   * Opens a file.
+   *
+   * @param file the file
+   * @return the labeled tensor file
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  public static LabeledTensorFile open(@Nonnull final File file) throws IOException {
+    final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      final ByteBuffer header = read(channel, 0, HEADER_SIZE);
+      if (header.getInt() != MAGIC)
+        throw new IOException("Not a labeled tensor file: " + file);
+      final int version = header.getInt();
+      if (version != VERSION)
+        throw new IOException("Unsupported labeled tensor file version " + version);
+      final int count = header.getInt();
+      final int labelCount = header.getInt();
+      final long labelOffset = header.getLong();
+      final long indexOffset = header.getLong();
+      final ByteBuffer labelTable = read(channel, labelOffset, (int) (indexOffset - labelOffset));
+      final String[] labels = new String[labelCount];
+      for (int i = 0; i < labelCount; i++) {
+        final byte[] bytes = new byte[labelTable.getInt()];
+        labelTable.get(bytes);
+        labels[i] = new String(bytes, StandardCharsets.UTF_8);
+      }
+      final ByteBuffer index = read(channel, indexOffset, count * 12);
+      final long[] offsets = new long[count + 1];
+      final int[] labelIds = new int[count];
+      for (int i = 0; i < count; i++) {
+        offsets[i] = index.getLong();
+        labelIds[i] = index.getInt();
+      }
+      offsets[count] = labelOffset;
+      return new LabeledTensorFile(channel, offsets, labelIds, labels);
+    } catch (@Nonnull final IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public int size() {
+    return labelIds.length;
+  }
+
+  /**
+   * Gets the distinct labels, in the order they were first written.
+   *
+   * @return the labels
+   */
+  @Nonnull
+  public List<String> getLabels() {
+    return Collections.unmodifiableList(Arrays.asList(labels));
+  }
+
+  @Nonnull
+  @Override
+  public String getLabel(final int index) {
+    return labels[labelIds[index]];
+  }
+
+  /**
+   * Decodes one tensor.
+   *
+   * @param index the index
+   * @return the tensor
+   */
+  @Nonnull
+  public Tensor getTensor(final int index) {
+    try {
+      final ByteBuffer buffer = read(channel, offsets[index], (int) (offsets[index + 1] - offsets[index]));
+      final int[] dims = new int[buffer.getInt()];
+      for (int i = 0; i < dims.length; i++) {
+        dims[i] = buffer.getInt();
+      }
+      final Tensor tensor = new Tensor(dims);
+      final double[] values = tensor.getData();
+      for (int i = 0; i < values.length; i++) {
+        values[i] = buffer.get() & 0xFF;
+      }
+      return tensor;
+    } catch (@Nonnull final IOException e) {
+      throw Util.throwException(e);
+    }
+  }
+
+  @Nonnull
+  @Override
+  public LabeledObject<Tensor> get(final int index) {
+    return new LabeledObject<>(getTensor(index), getLabel(index));
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  @Nonnull
+  private static ByteBuffer read(@Nonnull final FileChannel channel, long position, final int length)
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, position);
+      if (read < 0)
+        throw new IOException("Unexpected end of file");
+      position += read;
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static void write(@Nonnull final FileChannel channel, @Nonnull final ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  /**
+   * Writes a new file, one record at a time.
+   */
+  public static class Writer implements Consumer<LabeledObject<Tensor>>, AutoCloseable {
+    @Nonnull
+    private final FileChannel channel;
+    private final Map<String, Integer> labelIds = new LinkedHashMap<>();
+    private final List<Long> offsets = new ArrayList<>();
+    private final List<Integer> recordLabels = new ArrayList<>();
+    private long position = HEADER_SIZE;
+
+    /**
+     * Instantiates a new Writer, replacing any existing file.
+     *
+     * @param file the file
+     * @throws IOException the io exception
+     */
+    public Writer(@Nonnull final File file) throws IOException {
+      this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+          StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param label  the label
+     * @param tensor the tensor
+     * @throws IOException the io exception
+     */
+    public synchronized void add(@Nonnull final String label, @Nonnull final Tensor tensor) throws IOException {
+      try {
+        final int[] dims = tensor.getDimensions();
+        final double[] values = tensor.getData();
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + 4 * dims.length + values.length)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(dims.length);
+        for (int dim : dims) {
+          buffer.putInt(dim);
+        }
+        for (double value : values) {
+          buffer.put((byte) Math.max(0, Math.min(255, Math.round(value))));
+        }
+        buffer.flip();
+        offsets.add(position);
+        recordLabels.add(labelIds.computeIfAbsent(label, key -> labelIds.size()));
+        final int length = buffer.remaining();
+        write(channel, buffer, position);
+        position += length;
+      } finally {
+        tensor.freeRef();
+      }
+    }
+
+    @Override
+    public void accept(@Nonnull final LabeledObject<Tensor> item) {
+      try {
+        add(item.label, item.data.addRef());
+      } catch (@Nonnull final IOException e) {
+        throw Util.throwException(e);
+      } finally {
+        item.freeRef();
+      }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      try {
+        final long labelOffset = position;
+        int labelSize = 0;
+        final List<byte[]> encoded = new ArrayList<>();
+        for (String label : labelIds.keySet()) {
+          final byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+          encoded.add(bytes);
+          labelSize += 4 + bytes.length;
+        }
+        final ByteBuffer labelTable = ByteBuffer.allocate(labelSize).order(ByteOrder.LITTLE_ENDIAN);
+        for (byte[] bytes : encoded) {
+          labelTable.putInt(bytes.length).put(bytes);
+        }
+        labelTable.flip();
+        write(channel, labelTable, labelOffset);
+        final long indexOffset = labelOffset + labelSize;
+        final ByteBuffer index = ByteBuffer.allocate(offsets.size() * 12).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < offsets.size(); i++) {
+          index.putLong(offsets.get(i)).putInt(recordLabels.get(i));
+        }
+        index.flip();
+        write(channel, index, indexOffset);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(offsets.size()).putInt(labelIds.size())
+            .putLong(labelOffset).putLong(indexOffset);
+        header.flip();
+        write(channel, header, 0);
+        channel.force(true);
+      } finally {
+        channel.close();
+      }
+    }
+  }
+}
@@ -22,27 +22,36 @@ package com.simiacryptus.mindseye.test.data;
 import com.simiacryptus.mindseye.lang.Tensor;
 import com.simiacryptus.mindseye.test.TestUtil;
 import com.simiacryptus.ref.lang.RefUtil;
-import com.simiacryptus.ref.wrappers.*;
+import com.simiacryptus.ref.wrappers.RefList;
+import com.simiacryptus.ref.wrappers.RefStream;
 import com.simiacryptus.util.Util;
-import com.simiacryptus.util.io.BinaryChunkIterator;
 import com.simiacryptus.util.io.DataLoader;
 import com.simiacryptus.util.test.LabeledObject;
-import org.apache.commons.io.IOUtils;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
-import java.io.*;
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
-import java.util.Spliterator;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.Consumer;
+import java.util.stream.IntStream;
 import java.util.zip.GZIPInputStream;
 
 /**
  * The type Mnist.
+ * <p>
+ * The gzipped IDX files are converted once into an uncompressed, memory-mapped
+ * {@link MNISTCache} in the {@link DataCache} directory, which is mapped once per process
+ * and shared; every load copies images straight out of it, decoding chunks of records in
+ * parallel while keeping their order.
  */
 public class MNIST {
 
+  private static final ChunkedDecoder decoder = ChunkedDecoder.create(1000);
+  private static final Map<String, MNISTCache> caches = new HashMap<>();
+
   /**
    * The constant training.
    */
@@ -58,15 +67,8 @@ public class MNIST {
     @Override
     protected void read(@Nonnull final RefList<LabeledObject<Tensor>> queue) {
       try {
-        final RefStream<Tensor> imgStream = MNIST.binaryStream("train-images-idx3-ubyte.gz", 16, 28 * 28).map(b -> {
-          return MNIST.fillImage(b, new Tensor(28, 28, 1));
-        });
-        @Nonnull final RefStream<byte[]> labelStream = MNIST.binaryStream("train-labels-idx1-ubyte.gz", 8, 1);
-
-        @Nonnull final RefStream<LabeledObject<Tensor>> merged = MNIST
-            .toStream(new LabeledObjectIterator(imgStream, labelStream), 100);
-        merged.forEach(RefUtil.wrapInterface((Consumer<? super LabeledObject<Tensor>>) queue::add,
-            queue.addRef()));
+        MNIST.read(MNIST.getTrainingCache(),
+            RefUtil.wrapInterface((Consumer<LabeledObject<Tensor>>) queue::add, queue.addRef()));
       } catch (@Nonnull final IOException e) {
         throw Util.throwException(e);
       }
@@ -88,15 +90,8 @@ public class MNIST {
     @Override
     protected void read(@Nonnull final RefList<LabeledObject<Tensor>> queue) {
       try {
-        final RefStream<Tensor> imgStream = MNIST.binaryStream("t10k-images-idx3-ubyte.gz", 16, 28 * 28).map(b -> {
-          return MNIST.fillImage(b, new Tensor(28, 28, 1));
-        });
-        @Nonnull final RefStream<byte[]> labelStream = MNIST.binaryStream("t10k-labels-idx1-ubyte.gz", 8, 1);
-
-        @Nonnull final RefStream<LabeledObject<Tensor>> merged = MNIST
-            .toStream(new LabeledObjectIterator(imgStream, labelStream), 100);
-        merged.forEach(RefUtil.wrapInterface((Consumer<? super LabeledObject<Tensor>>) queue::add,
-            queue.addRef()));
+        MNIST.read(MNIST.getValidationCache(),
+            RefUtil.wrapInterface((Consumer<LabeledObject<Tensor>>) queue::add, queue.addRef()));
       } catch (@Nonnull final IOException e) {
         throw Util.throwException(e);
       }
@@ -124,88 +119,89 @@ public class MNIST {
     return MNIST.validation.stream();
   }
 
-  private static RefStream<byte[]> binaryStream(@Nonnull final String name, final int skip, final int recordSize)
-      throws IOException {
-    @Nullable
-    InputStream stream = null;
-    try {
-      stream = Util.cacheStream(TestUtil.S3_ROOT.resolve(name));
-    } catch (@Nonnull NoSuchAlgorithmException | KeyManagementException e) {
-      throw Util.throwException(e);
-    }
-    final byte[] fileData = IOUtils
-        .toByteArray(new BufferedInputStream(new GZIPInputStream(new BufferedInputStream(stream))));
-    @Nonnull final DataInputStream in = new DataInputStream(new ByteArrayInputStream(fileData));
-    in.skip(skip);
-    return MNIST.toIterator(new BinaryChunkIterator(in, recordSize));
-  }
-
+  /**
+   * Creates a loader that streams the training set through a bounded prefetch buffer
+   * instead of holding all of it.
+   *
+   * @param depth the prefetch depth
+   * @return the prefetching loader
+   */
   @Nonnull
-  private static Tensor fillImage(final byte[] b, @Nonnull final Tensor tensor) {
-    for (int x = 0; x < 28; x++) {
-      for (int y = 0; y < 28; y++) {
-        tensor.set(new int[]{x, y}, b[x + y * 28] & 0xFF);
-      }
-    }
-    return tensor;
+  public static PrefetchingLoader<LabeledObject<Tensor>> trainingLoader(final int depth) {
+    return MNIST.loader("train", depth);
   }
 
-  private static <T> RefStream<T> toIterator(@Nonnull final RefIteratorBase<T> iterator) {
-    return RefStreamSupport
-        .stream(RefSpliterators.spliterator(iterator, 1, Spliterator.ORDERED), false);
+  /**
+   * Creates a loader that streams the validation set through a bounded prefetch buffer
+   * instead of holding all of it.
+   *
+   * @param depth the prefetch depth
+   * @return the prefetching loader
+   */
+  @Nonnull
+  public static PrefetchingLoader<LabeledObject<Tensor>> validationLoader(final int depth) {
+    return MNIST.loader("t10k", depth);
   }
 
-  private static <T> RefStream<T> toStream(@Nonnull final RefIteratorBase<T> iterator, final int size) {
-    return MNIST.toStream(iterator, size, false);
+  /**
+   * Gets the training cache, building and mapping it on first use.
+   *
+   * @return the training cache
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  public static MNISTCache getTrainingCache() throws IOException {
+    return MNIST.getCache("train");
   }
 
-  private static <T> RefStream<T> toStream(@Nonnull final RefIteratorBase<T> iterator, final int size,
-                                           final boolean parallel) {
-    return RefStreamSupport
-        .stream(RefSpliterators.spliterator(iterator, size, Spliterator.ORDERED), parallel);
+  /**
+   * Gets the validation cache, building and mapping it on first use.
+   *
+   * @return the validation cache
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  public static MNISTCache getValidationCache() throws IOException {
+    return MNIST.getCache("t10k");
   }
 
-  private static class LabeledObjectIterator extends RefIteratorBase<LabeledObject<Tensor>> {
-    @Nonnull
-    private final RefIterator<Tensor> imgItr;
-    @Nonnull
-    private final RefIterator<byte[]> labelItr;
-
-    /**
-     * Instantiates a new Labeled object iterator.
-     *
-     * @param imgStream   the img stream
-     * @param labelStream the label stream
-     */
-    public LabeledObjectIterator(@Nonnull RefStream<Tensor> imgStream, @Nonnull RefStream<byte[]> labelStream) {
-      imgItr = imgStream.iterator();
-      labelItr = labelStream.iterator();
-    }
-
-    @Override
-    public boolean hasNext() {
-      return imgItr.hasNext() && labelItr.hasNext();
+  @Nonnull
+  private static synchronized MNISTCache getCache(@Nonnull final String prefix) throws IOException {
+    MNISTCache cache = caches.get(prefix);
+    if (null == cache) {
+      cache = MNISTCache.load(DataCache.getFile("mnist-" + prefix + ".bin"),
+          () -> MNIST.openIdx(prefix + "-images-idx3-ubyte.gz"),
+          () -> MNIST.openIdx(prefix + "-labels-idx1-ubyte.gz"));
+      caches.put(prefix, cache);
     }
+    return cache;
+  }
 
-    @Nonnull
-    @Override
-    public LabeledObject<Tensor> next() {
-      return new LabeledObject<>(imgItr.next(), RefArrays.toString(labelItr.next()));
+  @Nonnull
+  private static GZIPInputStream openIdx(@Nonnull final String name) throws IOException {
+    try {
+      return new GZIPInputStream(new BufferedInputStream(Util.cacheStream(TestUtil.S3_ROOT.resolve(name))));
+    } catch (@Nonnull NoSuchAlgorithmException | KeyManagementException e) {
+      throw Util.throwException(e);
     }
+  }
 
-    public @SuppressWarnings("unused")
-    void _free() {
-      super._free();
-      labelItr.freeRef();
-      imgItr.freeRef();
-    }
+  @Nonnull
+  private static PrefetchingLoader<LabeledObject<Tensor>> loader(@Nonnull final String prefix, final int depth) {
+    return new PrefetchingLoader<LabeledObject<Tensor>>(depth) {
+      @Override
+      protected void read(@Nonnull final Consumer<LabeledObject<Tensor>> sink) {
+        try {
+          MNIST.read(MNIST.getCache(prefix), sink);
+        } catch (@Nonnull final IOException e) {
+          throw Util.throwException(e);
+        }
+      }
+    };
+  }
 
-    @Nonnull
-    public @Override
-    @SuppressWarnings("unused")
-    LabeledObjectIterator addRef() {
-      return (LabeledObjectIterator) super.addRef();
-    }
+  private static void read(@Nonnull final MNISTCache cache, @Nonnull final Consumer<LabeledObject<Tensor>> sink) {
+    MNIST.decoder.decode(IntStream.range(0, cache.size()).iterator(), cache::get, sink);
   }
 
 }
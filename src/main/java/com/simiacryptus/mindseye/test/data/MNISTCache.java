@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test.data;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.util.test.LabeledObject;
+
+import javax.annotation.Nonnull;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A memory-mapped, uncompressed copy of one MNIST image/label file pair.
+ * <p>
+ * Layout, little-endian: a one-page header of magic, version, record count, rows, columns
+ * and the image and label offsets; the images as raw unsigned bytes, one row-major record
+ * per image, starting on a page boundary; then the labels, one byte each, also starting
+ * on a page boundary. The file is written once from the gzipped IDX files and afterwards
+ * only mapped, so opening it costs no decompression and no heap, and any record can be
+ * read directly at its fixed stride.
+ */
+public class MNISTCache implements IndexedDataset {
+  private static final int MAGIC = 0x4D4E5343;
+  private static final int VERSION = 1;
+  private static final int PAGE_SIZE = 4096;
+  private static final int IDX_IMAGES = 2051;
+  private static final int IDX_LABELS = 2049;
+
+  @Nonnull
+  private final ByteBuffer images;
+  @Nonnull
+  private final ByteBuffer labels;
+  private final int size;
+  private final int rows;
+  private final int columns;
+
+  private MNISTCache(@Nonnull final ByteBuffer images, @Nonnull final ByteBuffer labels, final int size,
+                     final int rows, final int columns) {
+    this.images = images;
+    this.labels = labels;
+    this.size = size;
+    this.rows = rows;
+    this.columns = columns;
+  }
+
+  /**
+   * Maps a cache file.
+   *
+   * @param file the file
+   * @return the mnist cache
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  public static MNISTCache open(@Nonnull final File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final ByteBuffer header = ByteBuffer.allocate(36).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining()) {
+        if (channel.read(header, header.position()) < 0)
+          throw new IOException("Truncated MNIST cache: " + file);
+      }
+      header.flip();
+      if (header.getInt() != MAGIC)
+        throw new IOException("Not an MNIST cache: " + file);
+      final int version = header.getInt();
+      if (version != VERSION)
+        throw new IOException("Unsupported MNIST cache version " + version);
+      final int size = header.getInt();
+      final int rows = header.getInt();
+      final int columns = header.getInt();
+      final long imageOffset = header.getLong();
+      final long labelOffset = header.getLong();
+      final ByteBuffer images = channel.map(FileChannel.MapMode.READ_ONLY, imageOffset, (long) size * rows * columns);
+      final ByteBuffer labels = channel.map(FileChannel.MapMode.READ_ONLY, labelOffset, size);
+      return new MNISTCache(images, labels, size, rows, columns);
+    }
+  }
+
+  /**
+   * Maps a cache file, first writing it from the gzipped IDX sources if it does not exist.
+   * The file is written under a temporary name and moved into place, so a reader never
+   * sees a partial cache.
+   *
+   * @param file   the file
+   * @param images the images
+   * @param labels the labels
+   * @return the mnist cache
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  public static MNISTCache load(@Nonnull final File file, @Nonnull final Source images, @Nonnull final Source labels)
+      throws IOException {
+    DataCache.build(file, temp -> {
+      try (InputStream imageStream = images.open(); InputStream labelStream = labels.open()) {
+        write(temp, imageStream, labelStream);
+      }
+    });
+    return open(file);
+  }
+
+  /**
+   * Converts an uncompressed IDX image/label pair into a cache file.
+   *
+   * @param file   the file
+   * @param images the images
+   * @param labels the labels
+   * @throws IOException the io exception
+   */
+  public static void write(@Nonnull final File file, @Nonnull final InputStream images,
+                           @Nonnull final InputStream labels) throws IOException {
+    final DataInputStream imageIn = new DataInputStream(images);
+    final DataInputStream labelIn = new DataInputStream(labels);
+    if (imageIn.readInt() != IDX_IMAGES)
+      throw new IOException("Not an IDX image file");
+    final int size = imageIn.readInt();
+    final int rows = imageIn.readInt();
+    final int columns = imageIn.readInt();
+    if (labelIn.readInt() != IDX_LABELS)
+      throw new IOException("Not an IDX label file");
+    final int labelCount = labelIn.readInt();
+    if (labelCount != size)
+      throw new IOException(String.format("%d images but %d labels", size, labelCount));
+    final long imageOffset = PAGE_SIZE;
+    final long labelOffset = align(imageOffset + (long) size * rows * columns);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      final ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(rows).putInt(columns)
+          .putLong(imageOffset).putLong(labelOffset);
+      header.clear();
+      write(channel, header, 0);
+      copy(imageIn, channel, imageOffset, (long) size * rows * columns);
+      copy(labelIn, channel, labelOffset, size);
+      channel.force(true);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Decodes one image into a new columns x rows x 1 tensor.
+   *
+   * @param index the index
+   * @return the tensor
+   */
+  @Nonnull
+  public Tensor getImage(final int index) {
+    final int length = rows * columns;
+    final byte[] pixels = new byte[length];
+    // Duplicates keep concurrent readers from sharing a position
+    final ByteBuffer buffer = images.duplicate();
+    buffer.position(index * length);
+    buffer.get(pixels);
+    final Tensor tensor = new Tensor(columns, rows, 1);
+    final double[] values = tensor.getData();
+    for (int i = 0; i < length; i++) {
+      values[i] = pixels[i] & 0xFF;
+    }
+    return tensor;
+  }
+
+  /**
+   * Gets the label of one image, formatted as the IDX loader always has.
+   *
+   * @param index the index
+   * @return the label
+   */
+  @Nonnull
+  @Override
+  public String getLabel(final int index) {
+    return "[" + labels.get(index) + "]";
+  }
+
+  @Nonnull
+  @Override
+  public LabeledObject<Tensor> get(final int index) {
+    return new LabeledObject<>(getImage(index), getLabel(index));
+  }
+
+  private static long align(final long position) {
+    return (position + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+  }
+
+  private static void copy(@Nonnull final InputStream in, @Nonnull final FileChannel channel, long position,
+                           final long length) throws IOException {
+    final byte[] chunk = new byte[1 << 16];
+    long remaining = length;
+    while (remaining > 0) {
+      final int read = in.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+      if (read < 0)
+        throw new IOException("Unexpected end of IDX data");
+      write(channel, ByteBuffer.wrap(chunk, 0, read), position);
+      position += read;
+      remaining -= read;
+    }
+  }
+
+  private static void write(@Nonnull final FileChannel channel, @Nonnull final ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  /**
+   * Opens one of the uncompressed IDX source files.
+   */
+  public interface Source {
+    /**
+     * Open input stream.
+     *
+     * @return the input stream
+     * @throws IOException the io exception
+     */
+    @Nonnull
+    InputStream open() throws IOException;
+  }
+}
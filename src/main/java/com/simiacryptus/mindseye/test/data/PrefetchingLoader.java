@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test.data;
+
+import com.simiacryptus.ref.lang.RefUtil;
+import com.simiacryptus.ref.lang.ReferenceCountingBase;
+import com.simiacryptus.ref.wrappers.RefIteratorBase;
+import com.simiacryptus.ref.wrappers.RefSpliterators;
+import com.simiacryptus.ref.wrappers.RefStream;
+import com.simiacryptus.ref.wrappers.RefStreamSupport;
+import com.simiacryptus.util.Util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A data loader that streams instead of accumulating.
+ * <p>
+ * Where a {@link com.simiacryptus.util.io.DataLoader} reads the whole dataset into an
+ * unbounded list, each {@link #stream()} of this loader starts a producer thread that
+ * runs {@link #read(Consumer)} into a bounded buffer of {@link #getDepth()} items. The
+ * producer blocks once the buffer is full, so it runs at most that far ahead of the
+ * consumer and only that many items are held at a time. {@link #getMetrics()} reports
+ * how full the buffer runs and how long each side spent waiting for the other.
+ *
+ * @param <T> the item type
+ */
+public abstract class PrefetchingLoader<T> extends ReferenceCountingBase {
+  private static final Object END = new Object();
+
+  private final int depth;
+  private final Set<Thread> producers = ConcurrentHashMap.newKeySet();
+  private final AtomicLong produced = new AtomicLong();
+  private final AtomicLong consumed = new AtomicLong();
+  private final AtomicLong depthTotal = new AtomicLong();
+  private final AtomicLong producerStallNanos = new AtomicLong();
+  private final AtomicLong consumerStallNanos = new AtomicLong();
+  @Nullable
+  private volatile ArrayBlockingQueue<Object> current;
+
+  /**
+   * Instantiates a new Prefetching loader.
+   *
+   * @param depth the number of items the producer may run ahead
+   */
+  protected PrefetchingLoader(final int depth) {
+    if (depth < 1)
+      throw new IllegalArgumentException("depth must be positive");
+    this.depth = depth;
+  }
+
+  /**
+   * Gets depth.
+   *
+   * @return the depth
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Gets a snapshot of the buffer and stall counters, accumulated over every pass.
+   *
+   * @return the metrics
+   */
+  @Nonnull
+  public Metrics getMetrics() {
+    final ArrayBlockingQueue<Object> buffer = current;
+    final long taken = consumed.get();
+    return new Metrics(depth, null == buffer ? 0 : buffer.size(), 0 == taken ? 0 : (double) depthTotal.get() / taken,
+        produced.get(), taken, producerStallNanos.get() / 1e6, consumerStallNanos.get() / 1e6);
+  }
+
+  /**
+   * Starts a pass over the data. Each call starts its own producer.
+   *
+   * @return the ref stream
+   */
+  @Nonnull
+  public RefStream<T> stream() {
+    final ArrayBlockingQueue<Object> buffer = new ArrayBlockingQueue<>(depth);
+    current = buffer;
+    final Thread producer = new Thread(() -> produce(buffer), getClass().getSimpleName() + "-prefetch");
+    producer.setDaemon(true);
+    producers.add(producer);
+    producer.start();
+    return RefStreamSupport.stream(RefSpliterators.spliterator(new PassIterator(buffer, producer), depth,
+        Spliterator.ORDERED), false);
+  }
+
+  /**
+   * Stops every running producer.
+   */
+  public void stop() {
+    producers.forEach(Thread::interrupt);
+  }
+
+  public void _free() {
+    stop();
+    super._free();
+  }
+
+  @Nonnull
+  public @Override
+  @SuppressWarnings("unused")
+  PrefetchingLoader<T> addRef() {
+    return (PrefetchingLoader<T>) super.addRef();
+  }
+
+  /**
+   * Reads the data, passing each item to the sink in order. The sink blocks while the
+   * buffer is full; implementations should stop promptly when their thread is interrupted.
+   *
+   * @param sink the sink
+   */
+  protected abstract void read(@Nonnull Consumer<T> sink);
+
+  private void produce(@Nonnull final ArrayBlockingQueue<Object> buffer) {
+    Object last = END;
+    try {
+      read(item -> {
+        try {
+          if (!buffer.offer(item)) {
+            final long start = System.nanoTime();
+            buffer.put(item);
+            producerStallNanos.addAndGet(System.nanoTime() - start);
+          }
+          produced.incrementAndGet();
+        } catch (@Nonnull final InterruptedException e) {
+          RefUtil.freeRef(item);
+          throw new Stopped();
+        }
+      });
+    } catch (@Nonnull final Stopped e) {
+      return;
+    } catch (@Nonnull final Throwable e) {
+      last = new Failure(e);
+    } finally {
+      producers.remove(Thread.currentThread());
+    }
+    try {
+      buffer.put(last);
+    } catch (@Nonnull final InterruptedException e) {
+      // Stopped while the consumer was not reading; nobody is left to tell
+    }
+  }
+
+  /**
+   * A snapshot of prefetch activity.
+   */
+  public static class Metrics {
+    /**
+     * The buffer capacity.
+     */
+    public final int capacity;
+    /**
+     * The current buffer depth.
+     */
+    public final int depth;
+    /**
+     * The average buffer depth seen by the consumer.
+     */
+    public final double averageDepth;
+    /**
+     * The number of items produced.
+     */
+    public final long produced;
+    /**
+     * The number of items consumed.
+     */
+    public final long consumed;
+    /**
+     * The time the producer spent blocked on a full buffer.
+     */
+    public final double producerStallMillis;
+    /**
+     * The time the consumer spent blocked on an empty buffer.
+     */
+    public final double consumerStallMillis;
+
+    /**
+     * Instantiates a new Metrics.
+     *
+     * @param capacity            the capacity
+     * @param depth               the depth
+     * @param averageDepth        the average depth
+     * @param produced            the produced
+     * @param consumed            the consumed
+     * @param producerStallMillis the producer stall millis
+     * @param consumerStallMillis the consumer stall millis
+     */
+    public Metrics(final int capacity, final int depth, final double averageDepth, final long produced,
+                   final long consumed, final double producerStallMillis, final double consumerStallMillis) {
+      this.capacity = capacity;
+      this.depth = depth;
+      this.averageDepth = averageDepth;
+      this.produced = produced;
+      this.consumed = consumed;
+      this.producerStallMillis = producerStallMillis;
+      this.consumerStallMillis = consumerStallMillis;
+    }
+
+    /**
+     * Whether the consumer has waited on the data more than the data has waited on it.
+     *
+     * @return the boolean
+     */
+    public boolean isInputBound() {
+      return consumerStallMillis > producerStallMillis;
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+      return String.format("depth=%d/%d (avg %.1f), produced=%d, consumed=%d, producer stall=%.1fms, consumer stall=%.1fms",
+          depth, capacity, averageDepth, produced, consumed, producerStallMillis, consumerStallMillis);
+    }
+  }
+
+  private static class Stopped extends RuntimeException {
+  }
+
+  private static class Failure {
+    /**
+     * The Error.
+     */
+    final Throwable error;
+
+    /**
+     * Instantiates a new Failure.
+     *
+     * @param error the error
+     */
+    Failure(final Throwable error) {
+      this.error = error;
+    }
+  }
+
+  private class PassIterator extends RefIteratorBase<T> {
+    @Nonnull
+    private final ArrayBlockingQueue<Object> buffer;
+    @Nonnull
+    private final Thread producer;
+    @Nullable
+    private Object next;
+    private boolean done;
+
+    /**
+     * Instantiates a new Pass iterator.
+     *
+     * @param buffer   the buffer
+     * @param producer the producer
+     */
+    PassIterator(@Nonnull final ArrayBlockingQueue<Object> buffer, @Nonnull final Thread producer) {
+      this.buffer = buffer;
+      this.producer = producer;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (done)
+        return false;
+      if (null == next)
+        next = take();
+      if (next == END) {
+        done = true;
+        return false;
+      }
+      if (next instanceof Failure) {
+        done = true;
+        throw Util.throwException(((Failure) next).error);
+      }
+      return true;
+    }
+
+    @Nonnull
+    @Override
+    public T next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      final T item = (T) next;
+      next = null;
+      return item;
+    }
+
+    public @SuppressWarnings("unused")
+    void _free() {
+      super._free();
+      producer.interrupt();
+      if (null != next && next != END && !(next instanceof Failure))
+        RefUtil.freeRef(next);
+      next = null;
+      Object item;
+      while (null != (item = buffer.poll())) {
+        if (item != END && !(item instanceof Failure))
+          RefUtil.freeRef(item);
+      }
+    }
+
+    @Nonnull
+    private Object take() {
+      try {
+        depthTotal.addAndGet(buffer.size());
+        Object item = buffer.poll();
+        if (null == item) {
+          final long start = System.nanoTime();
+          while (null == (item = buffer.poll(1, TimeUnit.SECONDS))) {
+            if (!producer.isAlive() && buffer.isEmpty())
+              return END;
+          }
+          consumerStallNanos.addAndGet(System.nanoTime() - start);
+        }
+        if (item != END && !(item instanceof Failure))
+          consumed.incrementAndGet();
+        return item;
+      } catch (@Nonnull final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return END;
+      }
+    }
+  }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test.integration;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * One randomized image augmentation, such as a crop, flip or color jitter.
+ * <p>
+ * An augmentation does not touch pixels itself. It draws its parameters for one copy and
+ * records them in a {@link Plan}, which folds every geometric operator into a single
+ * output-to-source mapping and every color operator into a per-band gain and bias. The
+ * plan then makes the augmented copy in one pass over the source tensor's backing array,
+ * with one output allocation, however many operators were applied.
+ */
+public interface Augmentation {
+
+  /**
+   * Draws this augmentation's parameters and adds it to the plan.
+   *
+   * @param random the random
+   * @param plan   the plan
+   */
+  void sample(@Nonnull SplittableRandom random, @Nonnull Plan plan);
+
+  /**
+   * Crops a region of the given size at a random position.
+   *
+   * @param width  the width
+   * @param height the height
+   * @return the augmentation
+   */
+  @Nonnull
+  static Augmentation crop(final int width, final int height) {
+    return (random, plan) -> {
+      if (width > plan.getWidth() || height > plan.getHeight())
+        throw new IllegalArgumentException(String.format("Cannot crop %dx%d from %dx%d", width, height,
+            plan.getWidth(), plan.getHeight()));
+      final int x = random.nextInt(plan.getWidth() - width + 1);
+      final int y = random.nextInt(plan.getHeight() - height + 1);
+      plan.crop(x, y, width, height);
+    };
+  }
+
+  /**
+   * Mirrors the image left to right, half of the time.
+   *
+   * @return the augmentation
+   */
+  @Nonnull
+  static Augmentation flip() {
+    return (random, plan) -> {
+      if (random.nextBoolean())
+        plan.flip();
+    };
+  }
+
+  /**
+   * Shifts the image by between -max and max - 1 pixels on each axis, filling with zero.
+   * A max of zero leaves the image in place.
+   *
+   * @param max the max
+   * @return the augmentation
+   */
+  @Nonnull
+  static Augmentation translate(final int max) {
+    if (max < 0)
+      throw new IllegalArgumentException("max must not be negative: " + max);
+    if (0 == max)
+      return (random, plan) -> {
+      };
+    return (random, plan) -> {
+      final int dx = random.nextInt(2 * max) - max;
+      final int dy = random.nextInt(2 * max) - max;
+      plan.translate(dx, dy);
+    };
+  }
+
+  /**
+   * Zooms about the center by a random factor.
+   *
+   * @param min the min
+   * @param max the max
+   * @return the augmentation
+   */
+  @Nonnull
+  static Augmentation scale(final double min, final double max) {
+    return (random, plan) -> plan.scale(min + random.nextDouble() * (max - min));
+  }
+
+  /**
+   * Scales each band by a random gain within 1 +/- gain and shifts it by a random offset
+   * within +/- offset.
+   *
+   * @param gain   the gain
+   * @param offset the offset
+   * @return the augmentation
+   */
+  @Nonnull
+  static Augmentation colorJitter(final double gain, final double offset) {
+    return (random, plan) -> {
+      for (int band = 0; band < plan.getBands(); band++) {
+        plan.color(band, 1 + (2 * random.nextDouble() - 1) * gain, (2 * random.nextDouble() - 1) * offset);
+      }
+    };
+  }
+
+  /**
+   * Adds uniform noise of up to the given amplitude to each value with the given
+   * probability.
+   *
+   * @param probability the probability
+   * @param amplitude   the amplitude
+   * @return the augmentation
+   */
+  @Nonnull
+  static Augmentation noise(final double probability, final double amplitude) {
+    return (random, plan) -> plan.noise(probability, amplitude);
+  }
+
+  /**
+   * The fused parameters of a sequence of augmentations for one copy of one image.
+   * <p>
+   * Geometric operators compose an affine map on each axis from output pixel to source
+   * pixel, sampled at the nearest source pixel; pixels mapped from outside the source
+   * are zero. Color operators compose a gain and bias per band, applied to the sampled
+   * value. Noise is added last, drawn value by value in index order from the random
+   * passed to {@link #apply(Tensor, SplittableRandom)}, if one is given; a later noise
+   * operator replaces an earlier one.
+   */
+  final class Plan {
+    private final int[] sourceDims;
+    private final int bands;
+    private final double[] gains;
+    private final double[] biases;
+    private int width;
+    private int height;
+    private double scaleX = 1;
+    private double offsetX = 0;
+    private double scaleY = 1;
+    private double offsetY = 0;
+    private double noiseProbability = 0;
+    private double noiseAmplitude = 0;
+
+    /**
+     * Instantiates an identity plan for a width x height x bands source.
+     *
+     * @param sourceDims the source dims
+     */
+    public Plan(@Nonnull final int[] sourceDims) {
+      this.sourceDims = sourceDims;
+      this.width = sourceDims[0];
+      this.height = sourceDims[1];
+      int bands = 1;
+      for (int i = 2; i < sourceDims.length; i++) {
+        bands *= sourceDims[i];
+      }
+      this.bands = bands;
+      this.gains = new double[bands];
+      this.biases = new double[bands];
+      Arrays.fill(gains, 1.0);
+    }
+
+    /**
+     * Gets the current output width.
+     *
+     * @return the width
+     */
+    public int getWidth() {
+      return width;
+    }
+
+    /**
+     * Gets the current output height.
+     *
+     * @return the height
+     */
+    public int getHeight() {
+      return height;
+    }
+
+    /**
+     * Gets bands.
+     *
+     * @return the bands
+     */
+    public int getBands() {
+      return bands;
+    }
+
+    /**
+     * Crops the current output to a region.
+     *
+     * @param x      the x
+     * @param y      the y
+     * @param width  the width
+     * @param height the height
+     */
+    public void crop(final int x, final int y, final int width, final int height) {
+      offsetX += scaleX * x;
+      offsetY += scaleY * y;
+      this.width = width;
+      this.height = height;
+    }
+
+    /**
+     * Mirrors the current output left to right.
+     */
+    public void flip() {
+      offsetX += scaleX * (width - 1);
+      scaleX = -scaleX;
+    }
+
+    /**
+     * Shifts the current output so that output pixel (x, y) shows the pixel previously at
+     * (x + dx, y + dy).
+     *
+     * @param dx the dx
+     * @param dy the dy
+     */
+    public void translate(final int dx, final int dy) {
+      offsetX += scaleX * dx;
+      offsetY += scaleY * dy;
+    }
+
+    /**
+     * Zooms the current output about its center.
+     *
+     * @param factor the factor
+     */
+    public void scale(final double factor) {
+      offsetX += scaleX * (width - 1) / 2 * (1 - 1 / factor);
+      offsetY += scaleY * (height - 1) / 2 * (1 - 1 / factor);
+      scaleX /= factor;
+      scaleY /= factor;
+    }
+
+    /**
+     * Applies a gain and then a bias to one band.
+     *
+     * @param band the band
+     * @param gain the gain
+     * @param bias the bias
+     */
+    public void color(final int band, final double gain, final double bias) {
+      gains[band] *= gain;
+      biases[band] = biases[band] * gain + bias;
+    }
+
+    /**
+     * Sets the noise added to each value.
+     *
+     * @param probability the probability
+     * @param amplitude   the amplitude
+     */
+    public void noise(final double probability, final double amplitude) {
+      this.noiseProbability = probability;
+      this.noiseAmplitude = amplitude;
+    }
+
+    /**
+     * Makes the augmented copy of a source tensor in one pass.
+     *
+     * @param tensor the tensor
+     * @param random the random the noise is drawn from, or null for no noise
+     * @return the tensor
+     */
+    @Nonnull
+    public Tensor apply(@Nonnull final Tensor tensor, @Nullable final SplittableRandom random) {
+      final int sourceWidth = sourceDims[0];
+      final int sourceHeight = sourceDims[1];
+      final int plane = sourceWidth * sourceHeight;
+      final double[] input = tensor.getData();
+      final int[] dims = sourceDims.clone();
+      dims[0] = width;
+      dims[1] = height;
+      final Tensor output = new Tensor(dims);
+      final double[] values = output.getData();
+      final int[] columns = new int[width];
+      for (int x = 0; x < width; x++) {
+        final int sourceX = (int) Math.floor(scaleX * x + offsetX + 0.5);
+        columns[x] = sourceX >= 0 && sourceX < sourceWidth ? sourceX : -1;
+      }
+      final boolean noisy = null != random && noiseProbability > 0;
+      final double threshold = 1 - noiseProbability;
+      int index = 0;
+      for (int band = 0; band < bands; band++) {
+        final int offset = band * plane;
+        final double gain = gains[band];
+        final double bias = biases[band];
+        for (int y = 0; y < height; y++) {
+          final int sourceY = (int) Math.floor(scaleY * y + offsetY + 0.5);
+          final boolean rowInside = sourceY >= 0 && sourceY < sourceHeight;
+          final int row = offset + sourceY * sourceWidth;
+          for (int x = 0; x < width; x++) {
+            double value = rowInside && columns[x] >= 0 ? input[row + columns[x]] * gain + bias : 0.0;
+            if (noisy && random.nextDouble() >= threshold)
+              value += random.nextDouble() * noiseAmplitude;
+            values[index++] = value;
+          }
+        }
+      }
+      tensor.freeRef();
+      return output;
+    }
+  }
+}
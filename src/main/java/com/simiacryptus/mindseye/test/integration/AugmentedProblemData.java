@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test.integration;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.test.TestSeeds;
+import com.simiacryptus.ref.lang.RefUtil;
+import com.simiacryptus.ref.wrappers.*;
+import com.simiacryptus.util.test.LabeledObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Image problem data whose training examples are expanded into randomly augmented copies
+ * by a chain of {@link Augmentation} operators. Validation data is passed through.
+ * <p>
+ * The inner training stream is read one batch of examples at a time, and each batch's
+ * copies are made on a fork-join pool only when the consumer reaches it, so at most one
+ * batch of augmented tensors is held ahead of the consumer. The operators of each copy are
+ * fused into a single pass over the source tensor. Copy i of an example is drawn from a
+ * stream keyed by the seed, the example's content and i, so the output does not depend
+ * on the pool's size or scheduling.
+ */
+public class AugmentedProblemData implements ImageProblemData {
+
+  private final ImageProblemData inner;
+  private final long seed;
+  private final List<Augmentation> augmentations = new ArrayList<>();
+  private final AtomicLong augmentationNanos = new AtomicLong();
+  private final AtomicLong augmentedCount = new AtomicLong();
+  private int expansion = 1;
+  private int batchSize = 256;
+  @Nonnull
+  private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+  /**
+   * Instantiates a new Augmented problem data.
+   *
+   * @param inner         the inner
+   * @param augmentations the augmentations, applied in order
+   */
+  public AugmentedProblemData(final ImageProblemData inner, @Nonnull final Augmentation... augmentations) {
+    this(inner, TestSeeds.seed(AugmentedProblemData.class.getName()), augmentations);
+  }
+
+  /**
+   * Instantiates a new Augmented problem data.
+   *
+   * @param inner         the inner
+   * @param seed          the seed
+   * @param augmentations the augmentations, applied in order
+   */
+  public AugmentedProblemData(final ImageProblemData inner, final long seed,
+                              @Nonnull final Augmentation... augmentations) {
+    this.inner = inner;
+    this.seed = seed;
+    this.augmentations.addAll(Arrays.asList(augmentations));
+  }
+
+  /**
+   * Adds an augmentation after the existing ones.
+   *
+   * @param augmentation the augmentation
+   * @return the augmented problem data
+   */
+  @Nonnull
+  public AugmentedProblemData add(@Nonnull final Augmentation augmentation) {
+    augmentations.add(augmentation);
+    return this;
+  }
+
+  /**
+   * Gets expansion.
+   *
+   * @return the expansion
+   */
+  public int getExpansion() {
+    return expansion;
+  }
+
+  /**
+   * Sets the number of augmented copies made of each example.
+   *
+   * @param expansion the expansion
+   * @return the expansion
+   */
+  @Nonnull
+  public AugmentedProblemData setExpansion(final int expansion) {
+    this.expansion = expansion;
+    return this;
+  }
+
+  /**
+   * Gets batch size.
+   *
+   * @return the batch size
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Sets the number of examples read and augmented together.
+   *
+   * @param batchSize the batch size
+   * @return the batch size
+   */
+  @Nonnull
+  public AugmentedProblemData setBatchSize(final int batchSize) {
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * Gets pool.
+   *
+   * @return the pool
+   */
+  @Nonnull
+  public ForkJoinPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Sets the pool the copies are made on; the common pool by default.
+   *
+   * @param pool the pool
+   * @return the pool
+   */
+  @Nonnull
+  public AugmentedProblemData setPool(@Nonnull final ForkJoinPool pool) {
+    this.pool = pool;
+    return this;
+  }
+
+  /**
+   * Gets the wall-clock time spent augmenting batches, in milliseconds, so the cost of
+   * augmentation can be measured apart from training.
+   *
+   * @return the augmentation millis
+   */
+  public double getAugmentationMillis() {
+    return augmentationNanos.get() / 1e6;
+  }
+
+  /**
+   * Gets the number of augmented copies made.
+   *
+   * @return the augmented count
+   */
+  public long getAugmentedCount() {
+    return augmentedCount.get();
+  }
+
+  @Nonnull
+  @Override
+  public RefStream<LabeledObject<Tensor>> trainingData() throws IOException {
+    return RefStreamSupport.stream(RefSpliterators.spliterator(
+        new AugmentingIterator(inner.trainingData().iterator()), batchSize * expansion, Spliterator.ORDERED), false);
+  }
+
+  @Override
+  public RefStream<LabeledObject<Tensor>> validationData() throws IOException {
+    return inner.validationData();
+  }
+
+  /**
+   * Makes the augmented copies of a batch of examples on the pool, in example order.
+   *
+   * @param examples the examples
+   * @return the labeled object [ ]
+   */
+  @Nonnull
+  @SuppressWarnings("unchecked")
+  public LabeledObject<Tensor>[] augment(@Nonnull final LabeledObject<Tensor>[] examples) {
+    final long start = System.nanoTime();
+    final int copies = expansion;
+    final Augmentation[] operators = augmentations.toArray(new Augmentation[]{});
+    final LabeledObject<Tensor>[] augmented = new LabeledObject[examples.length * copies];
+    boolean completed = false;
+    try {
+      final long[] exampleSeeds = new long[examples.length];
+      for (int i = 0; i < examples.length; i++) {
+        exampleSeeds[i] = TestSeeds.seed(seed,
+            31L * examples[i].label.hashCode() + Arrays.hashCode(examples[i].data.getData()));
+      }
+      pool.submit(() -> IntStream.range(0, augmented.length).parallel().forEach(k -> {
+        final LabeledObject<Tensor> example = examples[k / copies];
+        final SplittableRandom random = TestSeeds.random(exampleSeeds[k / copies], k % copies);
+        final Augmentation.Plan plan = new Augmentation.Plan(example.data.getDimensions());
+        for (Augmentation operator : operators) {
+          operator.sample(random, plan);
+        }
+        augmented[k] = new LabeledObject<>(plan.apply(example.data.addRef(), random), example.label);
+      })).join();
+      completed = true;
+    } finally {
+      RefUtil.freeRef(examples);
+      if (!completed)
+        RefUtil.freeRef(augmented);
+    }
+    augmentedCount.addAndGet(augmented.length);
+    augmentationNanos.addAndGet(System.nanoTime() - start);
+    return augmented;
+  }
+
+  private class AugmentingIterator extends RefIteratorBase<LabeledObject<Tensor>> {
+    @Nonnull
+    private final RefIterator<LabeledObject<Tensor>> source;
+    @Nullable
+    private LabeledObject<Tensor>[] batch = null;
+    private int position = 0;
+
+    /**
+     * Instantiates a new Augmenting iterator.
+     *
+     * @param source the source
+     */
+    AugmentingIterator(@Nonnull final RefIterator<LabeledObject<Tensor>> source) {
+      this.source = source;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean hasNext() {
+      while (null == batch || position >= batch.length) {
+        if (!source.hasNext())
+          return false;
+        final List<LabeledObject<Tensor>> examples = new ArrayList<>(batchSize);
+        while (examples.size() < batchSize && source.hasNext()) {
+          examples.add(source.next());
+        }
+        if (null != batch)
+          RefUtil.freeRef(batch);
+        batch = augment(examples.toArray(new LabeledObject[]{}));
+        position = 0;
+      }
+      return true;
+    }
+
+    @Nonnull
+    @Override
+    public LabeledObject<Tensor> next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      assert batch != null;
+      final LabeledObject<Tensor> item = batch[position];
+      batch[position++] = null;
+      return item;
+    }
+
+    public @SuppressWarnings("unused")
+    void _free() {
+      super._free();
+      if (null != batch)
+        RefUtil.freeRef(batch);
+      source.freeRef();
+    }
+  }
+}
@@ -34,6 +34,7 @@ import com.simiacryptus.mindseye.opt.TrainingMonitor;
 import com.simiacryptus.mindseye.opt.ValidatingTrainer;
 import com.simiacryptus.mindseye.test.GraphVizNetworkInspector;
 import com.simiacryptus.mindseye.test.StepRecord;
+import com.simiacryptus.mindseye.test.TestSeeds;
 import com.simiacryptus.mindseye.test.TestUtil;
 import com.simiacryptus.notebook.NotebookOutput;
 import com.simiacryptus.notebook.TableOutput;
@@ -72,6 +73,8 @@ public abstract class AutoencodingProblem implements Problem {
   private final OptimizationStrategy optimizer;
   private final RevNetworkFactory revFactory;
   private int timeoutMinutes = 1;
+  private int trainingLimit = Integer.MAX_VALUE;
+  private final long sampleSeed = TestSeeds.seed(AutoencodingProblem.class.getName());
 
   /**
    * Instantiates a new Autoencoding problem.
@@ -120,6 +123,29 @@ public abstract class AutoencodingProblem implements Problem {
     return this;
   }
 
+  /**
+   * Gets training limit.
+   *
+   * @return the training limit
+   */
+  public int getTrainingLimit() {
+    return trainingLimit;
+  }
+
+  /**
+   * Sets the number of training records to use. Indexed problem data draws a seeded
+   * random sample of this size and decodes only those records; by default every record
+   * is used.
+   *
+   * @param trainingLimit the training limit
+   * @return the training limit
+   */
+  @Nonnull
+  public AutoencodingProblem setTrainingLimit(final int trainingLimit) {
+    this.trainingLimit = trainingLimit;
+    return this;
+  }
+
   /**
    * Get training data tensor [ ] [ ].
    *
@@ -128,7 +154,7 @@ public abstract class AutoencodingProblem implements Problem {
   @Nonnull
   public Tensor[][] getTrainingData() {
     try {
-      return data.trainingData().map(labeledObject -> {
+      return IndexedProblemData.sample(data, trainingLimit, sampleSeed).map(labeledObject -> {
         Tensor[] tensors = {labeledObject.data};
         labeledObject.freeRef();
         return tensors;
@@ -21,6 +21,7 @@ package com.simiacryptus.mindseye.test.integration;
 
 import com.simiacryptus.mindseye.lang.Tensor;
 import com.simiacryptus.mindseye.test.data.CIFAR10;
+import com.simiacryptus.mindseye.test.data.IndexedDataset;
 import com.simiacryptus.ref.wrappers.RefStream;
 import com.simiacryptus.ref.wrappers.RefString;
 import com.simiacryptus.util.test.LabeledObject;
@@ -28,24 +29,41 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
 
 /**
  * The type Cifar problem data.
+ * <p>
+ * The training set is the 50,000 data_batch records. Before the indexed cache, training
+ * data was every record in the archive, so it also held the 10,000 test_batch records.
  */
-public class CIFARProblemData implements ImageProblemData {
+public class CIFARProblemData implements IndexedProblemData {
   private static final Logger log = LoggerFactory.getLogger(CIFARProblemData.class);
 
   @Nonnull
   @Override
-  public RefStream<LabeledObject<Tensor>> trainingData() {
-    log.info(RefString.format("Loaded %d items", CIFAR10.trainingDataStream().count()));
-    return CIFAR10.trainingDataStream();
+  public IndexedDataset getTrainingSet() throws IOException {
+    return CIFAR10.getTrainingCache();
   }
 
+  /**
+   * Gets the validation set. As before, this is the training data.
+   *
+   * @return the validation set
+   * @throws IOException the io exception
+   */
   @Nonnull
   @Override
-  public RefStream<LabeledObject<Tensor>> validationData() {
-    return CIFAR10.trainingDataStream();
+  public IndexedDataset getValidationSet() throws IOException {
+    return getTrainingSet();
+  }
+
+  @Nonnull
+  @Override
+  public RefStream<LabeledObject<Tensor>> trainingData() throws IOException {
+    final IndexedDataset trainingSet = getTrainingSet();
+    log.info(RefString.format("Loaded %d items", trainingSet.size()));
+    return trainingSet.stream();
   }
 
 }
@@ -21,20 +21,23 @@ package com.simiacryptus.mindseye.test.integration;
 
 import com.simiacryptus.mindseye.lang.Tensor;
 import com.simiacryptus.mindseye.test.data.Caltech101;
-import com.simiacryptus.mindseye.util.ImageUtil;
+import com.simiacryptus.mindseye.test.data.IndexedDataset;
+import com.simiacryptus.mindseye.test.data.LabeledTensorFile;
 import com.simiacryptus.ref.wrappers.RefStream;
+import com.simiacryptus.util.Util;
 import com.simiacryptus.util.test.LabeledObject;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.List;
 import java.util.stream.Collectors;
 
 /**
- * The type Caltech problem data.
+ * The type Caltech problem data. Images are read from a cache of tensors already resized
+ * to the image size; see {@link Caltech101#getCache(int)}.
  */
-public class CaltechProblemData implements ImageProblemData {
+public class CaltechProblemData implements IndexedProblemData {
 
   private final int imageSize;
   @Nullable
@@ -75,31 +78,43 @@ public class CaltechProblemData implements ImageProblemData {
     if (null == labels) {
       synchronized (this) {
         if (null == labels) {
-          labels = trainingData().map(x -> {
-            String label = x.label;
-            x.freeRef();
-            return label;
-          }).distinct().sorted().collect(Collectors.toList());
+          labels = getCache().getLabels().stream().sorted().collect(Collectors.<CharSequence>toList());
         }
       }
     }
     return labels;
   }
 
+  /**
+   * Gets the cache of images resized to this image size, building it on first use.
+   *
+   * @return the cache
+   */
+  @Nonnull
+  public LabeledTensorFile getCache() {
+    try {
+      return Caltech101.getCache(getImageSize());
+    } catch (@Nonnull final IOException e) {
+      throw Util.throwException(e);
+    }
+  }
+
+  @Nonnull
+  @Override
+  public IndexedDataset getTrainingSet() {
+    return getCache();
+  }
+
+  @Nonnull
+  @Override
+  public IndexedDataset getValidationSet() {
+    return getCache();
+  }
+
   @Nonnull
   @Override
   public RefStream<LabeledObject<Tensor>> trainingData() {
-    return Caltech101.trainingDataStream().parallel()
-        .map(x -> {
-          LabeledObject<Tensor> map = x.map(y -> {
-            BufferedImage image = y.get();
-            Tensor tensor = Tensor.fromRGB(ImageUtil.resize(image, getImageSize()));
-            y.freeRef();
-            return tensor;
-          });
-          x.freeRef();
-          return map;
-        });
+    return getCache().stream();
   }
 
   @Nonnull
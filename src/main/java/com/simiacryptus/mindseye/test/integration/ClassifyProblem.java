@@ -29,6 +29,7 @@ import com.simiacryptus.mindseye.opt.TrainingMonitor;
 import com.simiacryptus.mindseye.opt.ValidatingTrainer;
 import com.simiacryptus.mindseye.test.GraphVizNetworkInspector;
 import com.simiacryptus.mindseye.test.StepRecord;
+import com.simiacryptus.mindseye.test.TestSeeds;
 import com.simiacryptus.mindseye.test.TestUtil;
 import com.simiacryptus.notebook.NotebookOutput;
 import com.simiacryptus.notebook.TableOutput;
@@ -52,9 +53,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.IntFunction;
 import java.util.function.ToDoubleFunction;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 /**
  * The type Classify problem.
@@ -72,9 +71,12 @@ public abstract class ClassifyProblem implements Problem {
   private final List<CharSequence> labels;
   private int batchSize = 10000;
   private int timeoutMinutes = 1;
+  private int trainingLimit = Integer.MAX_VALUE;
+  private final long sampleSeed = TestSeeds.seed(ClassifyProblem.class.getName());
 
   /**
-   * Instantiates a new Classify problem.
+   * Instantiates a new Classify problem. Indexed data is sharded as set by the
+   * mindseye.data.shard system property, see {@link ShardedProblemData}.
    *
    * @param fwdFactory the fwd factory
    * @param optimizer  the optimizer
@@ -85,14 +87,11 @@ public abstract class ClassifyProblem implements Problem {
                          final ImageProblemData data, final int categories) {
     this.fwdFactory = fwdFactory;
     this.optimizer = optimizer;
-    this.data = data;
+    this.data = data instanceof IndexedProblemData
+        ? ShardedProblemData.fromSystemProperties((IndexedProblemData) data) : data;
     this.categories = categories;
     try {
-      this.labels = Stream.concat(this.data.trainingData(), this.data.validationData()).map(x -> {
-        String label = x.label;
-        x.freeRef();
-        return label;
-      }).distinct().sorted().collect(Collectors.toList());
+      this.labels = IndexedProblemData.labels(this.data);
     } catch (IOException e) {
       throw Util.throwException(e);
     }
@@ -146,6 +145,29 @@ public abstract class ClassifyProblem implements Problem {
     return this;
   }
 
+  /**
+   * Gets training limit.
+   *
+   * @return the training limit
+   */
+  public int getTrainingLimit() {
+    return trainingLimit;
+  }
+
+  /**
+   * Sets the number of training records to use. Indexed problem data draws a seeded
+   * random sample of this size and decodes only those records; by default every record
+   * is used.
+   *
+   * @param trainingLimit the training limit
+   * @return the training limit
+   */
+  @Nonnull
+  public ClassifyProblem setTrainingLimit(final int trainingLimit) {
+    this.trainingLimit = trainingLimit;
+    return this;
+  }
+
   /**
    * Get training data tensor [ ] [ ].
    *
@@ -154,7 +176,7 @@ public abstract class ClassifyProblem implements Problem {
   @Nonnull
   public Tensor[][] getTrainingData() {
     try {
-      return data.trainingData().map(labeledObject -> {
+      return IndexedProblemData.sample(data, trainingLimit, sampleSeed).map(labeledObject -> {
         @Nonnull final Tensor categoryTensor = new Tensor(categories);
         final int category = parse(labeledObject.label);
         categoryTensor.set(category, 1);
@@ -31,6 +31,7 @@ import com.simiacryptus.mindseye.opt.TrainingMonitor;
 import com.simiacryptus.mindseye.opt.ValidatingTrainer;
 import com.simiacryptus.mindseye.test.GraphVizNetworkInspector;
 import com.simiacryptus.mindseye.test.StepRecord;
+import com.simiacryptus.mindseye.test.TestSeeds;
 import com.simiacryptus.mindseye.test.TestUtil;
 import com.simiacryptus.mindseye.util.ImageUtil;
 import com.simiacryptus.notebook.NotebookOutput;
@@ -64,10 +65,13 @@ public abstract class EncodingProblem implements Problem {
   private final List<StepRecord> history = new ArrayList<>();
   private final OptimizationStrategy optimizer;
   private final RevNetworkFactory revFactory;
+  private final Random randomSource = new Random(TestSeeds.seed(EncodingProblem.class.getName()));
   private int batchSize = 10000;
   private int features;
   private int timeoutMinutes = 1;
   private int trainingSize = 15000;
+  private int trainingLimit = Integer.MAX_VALUE;
+  private final long sampleSeed = TestSeeds.seed(EncodingProblem.class.getName());
 
   /**
    * Instantiates a new Encoding problem.
@@ -133,6 +137,29 @@ public abstract class EncodingProblem implements Problem {
     return history;
   }
 
+  /**
+   * Gets training limit.
+   *
+   * @return the training limit
+   */
+  public int getTrainingLimit() {
+    return trainingLimit;
+  }
+
+  /**
+   * Sets the number of training records to use. Indexed problem data draws a seeded
+   * random sample of this size and decodes only those records; by default every record
+   * is used.
+   *
+   * @param trainingLimit the training limit
+   * @return the training limit
+   */
+  @Nonnull
+  public EncodingProblem setTrainingLimit(final int trainingLimit) {
+    this.trainingLimit = trainingLimit;
+    return this;
+  }
+
   /**
    * Get tensors tensor [ ] [ ].
    *
@@ -141,7 +168,7 @@ public abstract class EncodingProblem implements Problem {
   @NotNull
   public Tensor[][] getTensors() {
     try {
-      return data.trainingData().map(labeledObject -> {
+      return IndexedProblemData.sample(data, trainingLimit, sampleSeed).map(labeledObject -> {
         Tensor tensor = new Tensor(features);
         tensor.set(this::random);
         Tensor data = labeledObject.data;
@@ -201,7 +228,7 @@ public abstract class EncodingProblem implements Problem {
    * @return the double
    */
   public double random() {
-    return 0.1 * (Math.random() - 0.5);
+    return 0.1 * (randomSource.nextDouble() - 0.5);
   }
 
   @Nonnull
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test.integration;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.test.data.IndexedDataset;
+import com.simiacryptus.ref.wrappers.RefStream;
+import com.simiacryptus.util.test.LabeledObject;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Image problem data with random access to its records, so problems can read labels and
+ * draw samples without decoding the whole dataset.
+ */
+public interface IndexedProblemData extends ImageProblemData {
+  /**
+   * Gets training set.
+   *
+   * @return the training set
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  IndexedDataset getTrainingSet() throws IOException;
+
+  /**
+   * Gets validation set.
+   *
+   * @return the validation set
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  IndexedDataset getValidationSet() throws IOException;
+
+  /**
+   * Streams up to a number of training records. Indexed data yields a seeded random
+   * sample and decodes only those records; other data yields the first records of its
+   * stream.
+   *
+   * @param data  the data
+   * @param limit the limit
+   * @param seed  the seed
+   * @return the ref stream
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  static RefStream<LabeledObject<Tensor>> sample(@Nonnull final ImageProblemData data, final int limit,
+                                                 final long seed) throws IOException {
+    if (data instanceof IndexedProblemData) {
+      final IndexedDataset set = ((IndexedProblemData) data).getTrainingSet();
+      if (limit >= set.size())
+        return set.stream();
+      return set.stream(Arrays.copyOf(set.permutation(seed), limit));
+    }
+    return data.trainingData().limit(limit);
+  }
+
+  /**
+   * Gets the sorted distinct labels of the training and validation data, reading only the
+   * label index of indexed data. Sharded data gives the labels of the whole dataset.
+   *
+   * @param data the data
+   * @return the labels
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  static List<CharSequence> labels(@Nonnull ImageProblemData data) throws IOException {
+    while (data instanceof ShardedProblemData) {
+      data = ((ShardedProblemData) data).getInner();
+    }
+    if (data instanceof IndexedProblemData) {
+      final IndexedDataset training = ((IndexedProblemData) data).getTrainingSet();
+      final IndexedDataset validation = ((IndexedProblemData) data).getValidationSet();
+      return Stream.concat(
+          IntStream.range(0, training.size()).mapToObj(training::getLabel),
+          IntStream.range(0, validation.size()).mapToObj(validation::getLabel)
+      ).distinct().sorted().collect(Collectors.toList());
+    }
+    return Stream.concat(data.trainingData(), data.validationData()).map(x -> {
+      String label = x.label;
+      x.freeRef();
+      return label;
+    }).distinct().sorted().collect(Collectors.toList());
+  }
+
+  @Nonnull
+  @Override
+  default RefStream<LabeledObject<Tensor>> trainingData() throws IOException {
+    return getTrainingSet().stream();
+  }
+
+  @Nonnull
+  @Override
+  default RefStream<LabeledObject<Tensor>> validationData() throws IOException {
+    return getValidationSet().stream();
+  }
+}
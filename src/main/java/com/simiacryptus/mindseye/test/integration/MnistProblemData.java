@@ -20,6 +20,7 @@
 package com.simiacryptus.mindseye.test.integration;
 
 import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.test.data.IndexedDataset;
 import com.simiacryptus.mindseye.test.data.MNIST;
 import com.simiacryptus.ref.wrappers.RefStream;
 import com.simiacryptus.ref.wrappers.RefString;
@@ -28,11 +29,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
 
 /**
  * The type Mnist problem data.
  */
-public class MnistProblemData implements ImageProblemData {
+public class MnistProblemData implements IndexedProblemData {
   /**
    * The Log.
    */
@@ -40,15 +42,22 @@ public class MnistProblemData implements ImageProblemData {
 
   @Nonnull
   @Override
-  public RefStream<LabeledObject<Tensor>> trainingData() {
-    log.info(RefString.format("Loaded %d items", MNIST.trainingDataStream().count()));
-    return MNIST.trainingDataStream();
+  public IndexedDataset getTrainingSet() throws IOException {
+    return MNIST.getTrainingCache();
   }
 
   @Nonnull
   @Override
-  public RefStream<LabeledObject<Tensor>> validationData() {
-    return MNIST.validationDataStream();
+  public IndexedDataset getValidationSet() throws IOException {
+    return MNIST.getValidationCache();
+  }
+
+  @Nonnull
+  @Override
+  public RefStream<LabeledObject<Tensor>> trainingData() throws IOException {
+    final IndexedDataset trainingSet = getTrainingSet();
+    log.info(RefString.format("Loaded %d items", trainingSet.size()));
+    return trainingSet.stream();
   }
 
 }
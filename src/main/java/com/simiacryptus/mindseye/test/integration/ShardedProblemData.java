@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test.integration;
+
+import com.simiacryptus.mindseye.test.data.IndexedDataset;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+
+/**
+ * One shard of indexed problem data, for running data-parallel evaluations across
+ * several processes. Shard k of n holds every n-th training and validation record,
+ * starting at record k, so the shards are disjoint and deterministic, and each process
+ * decodes only its own records. Labels, as given by
+ * {@link IndexedProblemData#labels(ImageProblemData)}, still come from the whole dataset,
+ * so every shard numbers the classes the same way.
+ */
+public class ShardedProblemData implements IndexedProblemData {
+  /**
+   * The system property giving this process's shard as "k/n", e.g. "0/4".
+   */
+  public static final String SHARD = "mindseye.data.shard";
+
+  @Nonnull
+  private final IndexedProblemData inner;
+  private final int index;
+  private final int count;
+
+  /**
+   * Instantiates a new Sharded problem data.
+   *
+   * @param inner the inner
+   * @param index the shard index, from 0
+   * @param count the shard count
+   */
+  public ShardedProblemData(@Nonnull final IndexedProblemData inner, final int index, final int count) {
+    if (count < 1 || index < 0 || index >= count)
+      throw new IllegalArgumentException(String.format("Invalid shard %d of %d", index, count));
+    this.inner = inner;
+    this.index = index;
+    this.count = count;
+  }
+
+  /**
+   * Shards problem data as set by the mindseye.data.shard system property. Data is
+   * returned unchanged when the property is not set.
+   *
+   * @param data the data
+   * @return the indexed problem data
+   */
+  @Nonnull
+  public static IndexedProblemData fromSystemProperties(@Nonnull final IndexedProblemData data) {
+    final String shard = System.getProperty(SHARD);
+    if (null == shard || shard.isEmpty())
+      return data;
+    final String[] parts = shard.split("/");
+    if (parts.length != 2)
+      throw new IllegalArgumentException(String.format("%s must be k/n, not %s", SHARD, shard));
+    return new ShardedProblemData(data, Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+  }
+
+  /**
+   * Gets inner.
+   *
+   * @return the inner
+   */
+  @Nonnull
+  public IndexedProblemData getInner() {
+    return inner;
+  }
+
+  /**
+   * Gets index.
+   *
+   * @return the index
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * Gets count.
+   *
+   * @return the count
+   */
+  public int getCount() {
+    return count;
+  }
+
+  @Nonnull
+  @Override
+  public IndexedDataset getTrainingSet() throws IOException {
+    return inner.getTrainingSet().shard(index, count);
+  }
+
+  @Nonnull
+  @Override
+  public IndexedDataset getValidationSet() throws IOException {
+    return inner.getValidationSet().shard(index, count);
+  }
+}
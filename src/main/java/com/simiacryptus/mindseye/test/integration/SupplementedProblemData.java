@@ -19,28 +19,23 @@
 
 package com.simiacryptus.mindseye.test.integration;
 
-import com.simiacryptus.mindseye.lang.Coordinate;
 import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.test.TestSeeds;
 import com.simiacryptus.notebook.NotebookOutput;
 import com.simiacryptus.ref.lang.RefUtil;
 import com.simiacryptus.ref.wrappers.*;
-import com.simiacryptus.util.test.LabeledObject;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.IOException;
-import java.util.Random;
-import java.util.function.IntFunction;
-import java.util.function.ToDoubleFunction;
+import java.util.SplittableRandom;
 
 /**
  * The type Supplemented problem data.
+ * <p>
+ * Expands each training example into shifted, noisy copies, using the translate and noise
+ * operators of {@link AugmentedProblemData}.
  */
-public class SupplementedProblemData implements ImageProblemData {
-
-  private final int expansion = 10;
-  private final ImageProblemData inner;
-  private final Random random = new Random();
+public class SupplementedProblemData extends AugmentedProblemData {
 
   /**
    * Instantiates a new Supplemented problem data.
@@ -48,7 +43,20 @@ public class SupplementedProblemData implements ImageProblemData {
    * @param inner the inner
    */
   public SupplementedProblemData(final ImageProblemData inner) {
-    this.inner = inner;
+    this(inner, TestSeeds.seed(SupplementedProblemData.class.getName()));
+  }
+
+  /**
+   * Instantiates a new Supplemented problem data. Each expansion of an example is drawn
+   * from a stream keyed by the seed, the example's content and the expansion index, so the
+   * augmented data does not depend on the order the examples are streamed in.
+   *
+   * @param inner the inner
+   * @param seed  the seed
+   */
+  public SupplementedProblemData(final ImageProblemData inner, final long seed) {
+    super(inner, seed, Augmentation.translate(5), Augmentation.noise(0.1, 100));
+    setExpansion(10);
   }
 
   /**
@@ -77,9 +85,26 @@ public class SupplementedProblemData implements ImageProblemData {
    */
   @Nonnull
   protected static Tensor addNoise(@Nonnull final Tensor tensor) {
-    Tensor temp_16_0003 = tensor.mapParallel(v -> Math.random() < 0.9 ? v : v + Math.random() * 100);
+    return addNoise(tensor, new SplittableRandom());
+  }
+
+  /**
+   * Add noise tensor.
+   *
+   * @param tensor the tensor
+   * @param random the random
+   * @return the tensor
+   */
+  @Nonnull
+  protected static Tensor addNoise(@Nonnull final Tensor tensor, @Nonnull final SplittableRandom random) {
+    final double[] values = tensor.getData();
+    final Tensor noisy = new Tensor(tensor.getDimensions());
+    final double[] output = noisy.getData();
+    for (int i = 0; i < values.length; i++) {
+      output[i] = random.nextDouble() < 0.9 ? values[i] : values[i] + random.nextDouble() * 100;
+    }
     tensor.freeRef();
-    return temp_16_0003;
+    return noisy;
   }
 
   /**
@@ -92,42 +117,8 @@ public class SupplementedProblemData implements ImageProblemData {
    */
   @Nonnull
   protected static Tensor translate(final int dx, final int dy, @Nonnull final Tensor tensor) {
-    final int sx = tensor.getDimensions()[0];
-    final int sy = tensor.getDimensions()[1];
-    return new Tensor(
-        tensor.coordStream(true).mapToDouble(RefUtil.wrapInterface((ToDoubleFunction<? super Coordinate>) c -> {
-          final int x = c.getCoords()[0] + dx;
-          final int y = c.getCoords()[1] + dy;
-          if (x < 0 || x >= sx) {
-            return 0.0;
-          } else if (y < 0 || y >= sy) {
-            return 0.0;
-          } else {
-            return tensor.get(x, y);
-          }
-        }, tensor)).toArray(), tensor.getDimensions());
-  }
-
-  @Nonnull
-  @Override
-  public RefStream<LabeledObject<Tensor>> trainingData() throws IOException {
-    return inner.trainingData().flatMap(labeledObject -> {
-      return RefIntStream.range(0, expansion)
-          .mapToObj(RefUtil.wrapInterface((IntFunction<Tensor>) i -> {
-            final int dx = random.nextInt(10) - 5;
-            final int dy = random.nextInt(10) - 5;
-            return SupplementedProblemData.addNoise(SupplementedProblemData.translate(dx, dy, labeledObject.data.addRef()));
-          }, labeledObject.addRef()))
-          .map(RefUtil.wrapInterface(t -> {
-            LabeledObject<Tensor> temp_16_0002 = new LabeledObject<>(t.addRef(), labeledObject.label);
-            t.freeRef();
-            return temp_16_0002;
-          }, labeledObject));
-    });
-  }
-
-  @Override
-  public RefStream<LabeledObject<Tensor>> validationData() throws IOException {
-    return inner.validationData();
+    final Augmentation.Plan plan = new Augmentation.Plan(tensor.getDimensions());
+    plan.translate(dx, dy);
+    return plan.apply(tensor, null);
   }
 }
@@ -26,6 +26,7 @@ import com.simiacryptus.mindseye.lang.TensorList;
 import com.simiacryptus.mindseye.test.SimpleEval;
 import com.simiacryptus.mindseye.test.SimpleListEval;
 import com.simiacryptus.mindseye.test.SimpleResult;
+import com.simiacryptus.mindseye.test.TestUtil;
 import com.simiacryptus.mindseye.test.ToleranceStatistics;
 import com.simiacryptus.notebook.NotebookOutput;
 import com.simiacryptus.ref.lang.RefUtil;
@@ -33,23 +34,34 @@ import com.simiacryptus.ref.wrappers.RefArrays;
 import com.simiacryptus.ref.wrappers.RefCollectors;
 import com.simiacryptus.ref.wrappers.RefIntStream;
 import com.simiacryptus.ref.wrappers.RefList;
+import com.simiacryptus.ref.wrappers.RefString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.Callable;
 import java.util.function.IntFunction;
 
 /**
  * The type Batching tester.
  */
 public class BatchingTester extends ComponentTestBase<ToleranceStatistics> {
+  /**
+   * Batch sizes for the sweep mode, chosen to hit power-of-two boundaries and the
+   * remainder paths on either side of them.
+   */
+  public static final int[] DEFAULT_SWEEP_SIZES = {1, 2, 3, 7, 8, 16, 17, 31, 32, 33, 64, 65};
   private static final Logger logger = LoggerFactory.getLogger(BatchingTester.class);
 
   private final double tolerance;
   private final boolean validateDerivatives;
   private int batchSize = 10;
+  private int parallelism = 1;
+  @Nullable
+  private int[] sweepSizes = null;
 
   /**
    * Instantiates a new Batching tester.
@@ -80,6 +92,47 @@ public class BatchingTester extends ComponentTestBase<ToleranceStatistics> {
     this.batchSize = batchSize;
   }
 
+  /**
+   * Gets parallelism.
+   *
+   * @return the parallelism
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Sets the number of worker threads used for the one-at-a-time evaluations and the
+   * derivative comparisons. With more than one worker, each row is evaluated against
+   * its own copy of the layer.
+   *
+   * @param parallelism the parallelism
+   */
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Get sweep sizes int [ ].
+   *
+   * @return the int [ ]
+   */
+  @Nullable
+  public int[] getSweepSizes() {
+    return sweepSizes;
+  }
+
+  /**
+   * Enables the batch size sweep. The largest size determines how many random rows are
+   * generated; the rows are then re-evaluated split into consecutive batches of each
+   * size. Null disables the sweep.
+   *
+   * @param sweepSizes the sweep sizes
+   */
+  public void setSweepSizes(@Nullable int... sweepSizes) {
+    this.sweepSizes = sweepSizes;
+  }
+
   /**
    * Gets random.
    *
@@ -110,15 +163,16 @@ public class BatchingTester extends ComponentTestBase<ToleranceStatistics> {
     }).toArray(TensorList[]::new);
     @Nonnull final SimpleResult asABatch = SimpleListEval.run(reference.addRef(), validateDerivatives,
         RefUtil.addRef(inputTensorLists));
-    final RefList<SimpleEval> oneAtATime = RefIntStream.range(0, getBatchSize())
+    final RefList<SimpleEval> oneAtATime = TestUtil.runInPool(getParallelism(), () -> rows(getBatchSize())
         .mapToObj(RefUtil.wrapInterface((IntFunction<? extends SimpleEval>) batch -> {
           Tensor[] inputTensors = RefIntStream.range(0, inputTensorLists.length)
               .mapToObj(RefUtil.wrapInterface((IntFunction<? extends Tensor>) i -> inputTensorLists[i].get(batch),
                   RefUtil.addRef(inputTensorLists)))
               .toArray(Tensor[]::new);
-          return SimpleEval.run(reference.addRef(), validateDerivatives, inputTensors);
+          Layer rowLayer = getParallelism() > 1 ? reference.copy() : reference.addRef();
+          return SimpleEval.run(rowLayer, validateDerivatives, inputTensors);
         }, RefUtil.addRef(inputTensorLists), reference.addRef()))
-        .collect(RefCollectors.toList());
+        .collect(RefCollectors.toList()));
     reference.freeRef();
     RefUtil.freeRef(inputTensorLists);
     TensorList batchOutput = asABatch.getOutput();
@@ -173,7 +227,7 @@ public class BatchingTester extends ComponentTestBase<ToleranceStatistics> {
     batchOutput.freeRef();
     if (validateDerivatives) {
       logger.info("Derivatives");
-      ToleranceStatistics derivativeAgreement = RefIntStream.range(0, Math.min(getBatchSize(), batchLength))
+      ToleranceStatistics derivativeAgreement = TestUtil.runInPool(getParallelism(), () -> rows(Math.min(getBatchSize(), batchLength))
           .mapToObj(RefUtil.wrapInterface((IntFunction<ToleranceStatistics>) batch -> {
                 TensorList[] asABatchInputDerivative = asABatch.getInputDerivative();
                 assert oneAtATime != null;
@@ -201,7 +255,7 @@ public class BatchingTester extends ComponentTestBase<ToleranceStatistics> {
                 return statistics;
               }, RefUtil.addRef(inputPrototype), oneAtATime == null ? null : oneAtATime.addRef(),
               asABatch.addRef()))
-          .filter(Objects::nonNull).reduce(ToleranceStatistics::combine).orElse(null);
+          .filter(Objects::nonNull).reduce(ToleranceStatistics::combine).orElse(null));
 
       if (null != derivativeAgreement && derivativeAgreement.absoluteTol.getMax() >= tolerance) {
         asABatch.freeRef();
@@ -224,6 +278,65 @@ public class BatchingTester extends ComponentTestBase<ToleranceStatistics> {
     }
   }
 
+  /**
+   * Evaluates the same random rows split into batches of every configured sweep size, and
+   * compares each row against its singleton evaluation. The singleton evaluations are
+   * computed once and shared by all sizes.
+   *
+   * @param reference      the reference
+   * @param inputPrototype the input prototype
+   * @return the tolerance statistics
+   */
+  @Nonnull
+  public ToleranceStatistics sweep(@Nullable final Layer reference, @Nonnull final Tensor[] inputPrototype) {
+    final int rowCount = null == sweepSizes ? 0 : Arrays.stream(sweepSizes).max().orElse(0);
+    if (null == reference || 0 == rowCount || 0 == inputPrototype.length) {
+      if (null != reference)
+        reference.freeRef();
+      RefUtil.freeRef(inputPrototype);
+      return new ToleranceStatistics();
+    }
+    final Tensor[][] rowInputs = RefIntStream.range(0, rowCount)
+        .mapToObj(RefUtil.wrapInterface((IntFunction<? extends Tensor[]>) row -> {
+          return RefArrays.stream(RefUtil.addRef(inputPrototype)).map(t -> {
+            try {
+              return t.map(v -> getRandom());
+            } finally {
+              t.freeRef();
+            }
+          }).toArray(Tensor[]::new);
+        }, inputPrototype)).toArray(Tensor[][]::new);
+    final SimpleEval[] singletons = TestUtil.runInPool(getParallelism(),
+        RefUtil.wrapInterface((Callable<SimpleEval[]>) () -> rows(rowCount)
+            .mapToObj(RefUtil.wrapInterface((IntFunction<? extends SimpleEval>) row -> {
+              Layer rowLayer = getParallelism() > 1 ? reference.copy() : reference.addRef();
+              return SimpleEval.run(rowLayer, validateDerivatives, RefUtil.addRef(rowInputs[row]));
+            }, reference.addRef(), RefUtil.addRef(rowInputs))).toArray(SimpleEval[]::new),
+            reference.addRef(), RefUtil.addRef(rowInputs)));
+    ToleranceStatistics total = new ToleranceStatistics();
+    try {
+      for (final int size : sweepSizes) {
+        if (size < 1)
+          continue;
+        ToleranceStatistics sizeStatistics = new ToleranceStatistics();
+        for (int start = 0; start < rowCount; start += size) {
+          sizeStatistics = sizeStatistics.combine(compareChunk(reference.addRef(), rowInputs, singletons,
+              start, Math.min(rowCount, start + size)));
+        }
+        logger.info(RefString.format("Batch size %d: %s", size, sizeStatistics));
+        if (!(sizeStatistics.absoluteTol.getMax() < tolerance)) {
+          throw new AssertionError(RefString.format("Batch size %d corrupt: %s", size, sizeStatistics));
+        }
+        total = total.combine(sizeStatistics);
+      }
+      return total;
+    } finally {
+      reference.freeRef();
+      RefUtil.freeRef(rowInputs);
+      RefUtil.freeRef(singletons);
+    }
+  }
+
   @Override
   public ToleranceStatistics test(@Nonnull final NotebookOutput log, @Nullable final Layer reference,
                                   @Nonnull final Tensor... inputPrototype) {
@@ -233,6 +346,15 @@ public class BatchingTester extends ComponentTestBase<ToleranceStatistics> {
     ToleranceStatistics temp_15_0007 = log.eval(RefUtil.wrapInterface(() -> {
       return test(reference == null ? null : reference.addRef(), RefUtil.addRef(inputPrototype));
     }, RefUtil.addRef(inputPrototype), reference == null ? null : reference.addRef()));
+    if (null != sweepSizes) {
+      log.h2("Batch Size Sweep");
+      log.p(RefString.format("We repeat the check with the same rows split into batches of size %s:",
+          RefArrays.toString(sweepSizes)));
+      ToleranceStatistics sweepStatistics = log.eval(RefUtil.wrapInterface(() -> {
+        return sweep(reference == null ? null : reference.addRef(), RefUtil.addRef(inputPrototype));
+      }, RefUtil.addRef(inputPrototype), reference == null ? null : reference.addRef()));
+      temp_15_0007 = temp_15_0007.combine(sweepStatistics);
+    }
     RefUtil.freeRef(inputPrototype);
     if (null != reference)
       reference.freeRef();
@@ -242,7 +364,54 @@ public class BatchingTester extends ComponentTestBase<ToleranceStatistics> {
   @Nonnull
   @Override
   public String toString() {
-    return "BatchingTester{" + "tolerance=" + tolerance + ", batchSize=" + batchSize + '}';
+    return "BatchingTester{" + "tolerance=" + tolerance + ", batchSize=" + batchSize + ", parallelism=" + parallelism
+        + ", sweepSizes=" + RefArrays.toString(sweepSizes) + '}';
+  }
+
+  @Nonnull
+  private ToleranceStatistics compareChunk(@Nonnull final Layer reference, @Nonnull final Tensor[][] rowInputs,
+                                           @Nonnull final SimpleEval[] singletons, final int start, final int end) {
+    final int inputs = rowInputs[start].length;
+    final TensorList[] chunk = RefIntStream.range(0, inputs).mapToObj(i -> {
+      return new TensorArray(RefIntStream.range(start, end)
+          .mapToObj(row -> rowInputs[row][i].addRef()).toArray(Tensor[]::new));
+    }).toArray(TensorList[]::new);
+    final SimpleResult result = SimpleListEval.run(reference, validateDerivatives, chunk);
+    final TensorList output = result.getOutput();
+    final TensorList[] derivatives = validateDerivatives ? result.getInputDerivative() : null;
+    result.freeRef();
+    assert output != null;
+    final ToleranceStatistics statistics = new ToleranceStatistics();
+    final int rows = Math.min(end - start, output.length());
+    for (int offset = 0; offset < rows; offset++) {
+      final SimpleEval singleton = singletons[start + offset];
+      Tensor batchTensor = output.get(offset);
+      Tensor singleTensor = singleton.getOutput();
+      assert singleTensor != null;
+      statistics.accumulate(batchTensor.getData(), singleTensor.getData());
+      batchTensor.freeRef();
+      singleTensor.freeRef();
+      if (null != derivatives) {
+        final Tensor[] singleDerivative = singleton.getDerivative();
+        assert singleDerivative != null;
+        for (int i = 0; i < Math.min(derivatives.length, singleDerivative.length); i++) {
+          Tensor batchDerivative = derivatives[i].get(offset);
+          statistics.accumulate(batchDerivative.getData(), singleDerivative[i].getData());
+          batchDerivative.freeRef();
+        }
+        RefUtil.freeRef(singleDerivative);
+      }
+    }
+    output.freeRef();
+    if (null != derivatives)
+      RefUtil.freeRef(derivatives);
+    return statistics;
+  }
+
+  @Nonnull
+  private RefIntStream rows(int count) {
+    RefIntStream stream = RefIntStream.range(0, count);
+    return getParallelism() > 1 ? stream.parallel() : stream;
   }
 
   public @SuppressWarnings("unused")
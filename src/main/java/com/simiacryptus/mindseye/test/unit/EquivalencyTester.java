@@ -23,6 +23,8 @@ import com.google.gson.GsonBuilder;
 import com.simiacryptus.mindseye.lang.Layer;
 import com.simiacryptus.mindseye.lang.Tensor;
 import com.simiacryptus.mindseye.test.SimpleEval;
+import com.simiacryptus.mindseye.test.TestSeeds;
+import com.simiacryptus.mindseye.test.TestUtil;
 import com.simiacryptus.mindseye.test.ToleranceStatistics;
 import com.simiacryptus.notebook.NotebookOutput;
 import com.simiacryptus.ref.lang.RefUtil;
@@ -34,6 +36,8 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntFunction;
 
 /**
@@ -45,6 +49,9 @@ public class EquivalencyTester extends ComponentTestBase<ToleranceStatistics> {
   @Nullable
   private final Layer reference;
   private final double tolerance;
+  private int seeds = 1;
+  private int parallelism = 1;
+  private long seed = LayerTests.seed;
 
   /**
    * Instantiates a new Equivalency tester.
@@ -62,6 +69,61 @@ public class EquivalencyTester extends ComponentTestBase<ToleranceStatistics> {
       referenceLayer.freeRef();
   }
 
+  /**
+   * Gets seeds.
+   *
+   * @return the seeds
+   */
+  public int getSeeds() {
+    return seeds;
+  }
+
+  /**
+   * Sets the number of random inputs to compare. With more than one seed, inputs are
+   * generated from the seed base and full tensor dumps are only logged for failing seeds.
+   *
+   * @param seeds the seeds
+   */
+  public void setSeeds(int seeds) {
+    this.seeds = seeds;
+  }
+
+  /**
+   * Gets parallelism.
+   *
+   * @return the parallelism
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Sets parallelism.
+   *
+   * @param parallelism the parallelism
+   */
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Gets seed.
+   *
+   * @return the seed
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Sets seed.
+   *
+   * @param seed the seed
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
   /**
    * Test tolerance statistics.
    *
@@ -71,6 +133,9 @@ public class EquivalencyTester extends ComponentTestBase<ToleranceStatistics> {
    */
   @Nonnull
   public ToleranceStatistics test(@Nullable final Layer subject, @Nonnull final Tensor[] inputPrototype) {
+    if (seeds > 1) {
+      return testSeeds(subject, inputPrototype);
+    }
     if (null == reference || null == subject) {
       if (null != subject)
         subject.freeRef();
@@ -121,6 +186,49 @@ public class EquivalencyTester extends ComponentTestBase<ToleranceStatistics> {
     return result;
   }
 
+  /**
+   * Compares subject and reference on {@link #getSeeds()} random inputs, evaluated in
+   * parallel, and reports the absolute, relative and ULP error distributions.
+   *
+   * @param subject        the subject
+   * @param inputPrototype the input prototype
+   * @return the tolerance statistics
+   */
+  @Nonnull
+  public ToleranceStatistics testSeeds(@Nullable final Layer subject, @Nonnull final Tensor[] inputPrototype) {
+    if (null == reference || null == subject) {
+      if (null != subject)
+        subject.freeRef();
+      RefUtil.freeRef(inputPrototype);
+      return new ToleranceStatistics();
+    }
+    reference.assertAlive();
+    final AtomicInteger failures = new AtomicInteger();
+    final ToleranceStatistics result;
+    try {
+      result = TestUtil.runInPool(parallelism, () -> {
+        RefIntStream indices = RefIntStream.range(0, seeds);
+        return (parallelism > 1 ? indices.parallel() : indices).mapToObj(index -> {
+          ToleranceStatistics statistics = compareSeed(subject.addRef(), RefUtil.addRef(inputPrototype), index);
+          if (!(statistics.absoluteTol.getMax() < tolerance))
+            failures.incrementAndGet();
+          return statistics;
+        }).reduce(ToleranceStatistics::combine).orElseGet(ToleranceStatistics::new);
+      });
+    } finally {
+      subject.freeRef();
+      RefUtil.freeRef(inputPrototype);
+    }
+    log.info(RefString.format("Accuracy over %d seeds:", seeds));
+    log.info(RefString.format("absoluteTol: %s", result.absoluteTol.toString()));
+    log.info(RefString.format("relativeTol: %s", result.relativeTol.toString()));
+    log.info(RefString.format("ulpTol: %s", result.ulpTol.toString()));
+    if (0 < failures.get()) {
+      throw new AssertionError(RefString.format("%d of %d seeds failed: %s", failures.get(), seeds, result));
+    }
+    return result;
+  }
+
   @Override
   public ToleranceStatistics test(@Nonnull final NotebookOutput output, @Nonnull final Layer subject,
                                   @Nonnull final Tensor... inputPrototype) {
@@ -145,7 +253,8 @@ public class EquivalencyTester extends ComponentTestBase<ToleranceStatistics> {
   @Nonnull
   @Override
   public String toString() {
-    return "EquivalencyTester{" + "reference=" + reference + ", tolerance=" + tolerance + '}';
+    return "EquivalencyTester{" + "reference=" + reference + ", tolerance=" + tolerance + ", seeds=" + seeds
+        + ", parallelism=" + parallelism + '}';
   }
 
   public void _free() {
@@ -160,4 +269,53 @@ public class EquivalencyTester extends ComponentTestBase<ToleranceStatistics> {
   EquivalencyTester addRef() {
     return (EquivalencyTester) super.addRef();
   }
+
+  @Nonnull
+  private ToleranceStatistics compareSeed(@Nonnull final Layer subject, @Nonnull final Tensor[] inputPrototype,
+                                          final int index) {
+    assert reference != null;
+    final Random random = new Random(TestSeeds.seed(seed, index));
+    final Tensor[] inputs = RefArrays.stream(inputPrototype).map(prototype -> {
+      Tensor tensor = new Tensor(prototype.getDimensions());
+      prototype.freeRef();
+      final double[] data = tensor.getData();
+      for (int i = 0; i < data.length; i++) {
+        data[i] = 5 * (random.nextDouble() - 0.5);
+      }
+      return tensor;
+    }).toArray(Tensor[]::new);
+    final Layer subjectCopy = parallelism > 1 ? LayerTests.copy(subject) : subject;
+    final Layer referenceCopy = parallelism > 1 ? reference.copy() : reference.addRef();
+    final SimpleEval subjectEval = SimpleEval.run(subjectCopy, false, RefUtil.addRef(inputs));
+    final Tensor subjectOutput = subjectEval.getOutput();
+    subjectEval.freeRef();
+    final SimpleEval referenceEval = SimpleEval.run(referenceCopy, false, RefUtil.addRef(inputs));
+    final Tensor referenceOutput = referenceEval.getOutput();
+    referenceEval.freeRef();
+    assert subjectOutput != null;
+    assert referenceOutput != null;
+    try {
+      final ToleranceStatistics statistics = new ToleranceStatistics().accumulate(subjectOutput.getData(),
+          referenceOutput.getData());
+      if (!(statistics.absoluteTol.getMax() < tolerance)) {
+        // Only pay for formatting when something is wrong
+        log.info(RefString.format("Seed %d failed: %s", seed + index, statistics));
+        log.info(RefString.format("Inputs: %s", RefUtil.get(RefArrays.stream(RefUtil.addRef(inputs)).map(t -> {
+          String str = t.prettyPrint();
+          t.freeRef();
+          return str;
+        }).reduce((a, b) -> a + ",\n" + b))));
+        log.info(RefString.format("Subject Output: %s", subjectOutput.prettyPrint()));
+        log.info(RefString.format("Reference Output: %s", referenceOutput.prettyPrint()));
+        Tensor error = subjectOutput.minus(referenceOutput.addRef());
+        log.info(RefString.format("Error: %s", error.prettyPrint()));
+        error.freeRef();
+      }
+      return statistics;
+    } finally {
+      subjectOutput.freeRef();
+      referenceOutput.freeRef();
+      RefUtil.freeRef(inputs);
+    }
+  }
 }
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test.unit;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.ref.lang.RefUtil;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A memory-mapped file of reference input/output cases for one layer.
+ * <p>
+ * Layout, little-endian: a header of magic, version, case count and index offset; the
+ * cases; then an index of case offsets. Each case is an input count followed by the
+ * input tensors and the output tensor, and each tensor is its rank, its dimensions and
+ * its raw double values. Cases are decoded only when requested, so large golden sets cost
+ * no heap until they are used.
+ */
+public class GoldenFile {
+  private static final int MAGIC = 0x474F4C44;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 20;
+
+  @Nonnull
+  private final ByteBuffer data;
+  @Nonnull
+  private final int[] offsets;
+
+  private GoldenFile(@Nonnull final ByteBuffer data, @Nonnull final int[] offsets) {
+    this.data = data;
+    this.offsets = offsets;
+  }
+
+  /**
+   * Maps a golden file. Files are limited to 2GiB by the single mapping.
+   *
+   * @param file the file
+   * @return the golden file
+   * @throws IOException the io exception
+   */
+  @Nonnull
+  public static GoldenFile open(@Nonnull final File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+          .order(ByteOrder.LITTLE_ENDIAN);
+      if (data.getInt(0) != MAGIC)
+        throw new IOException("Not a golden file: " + file);
+      final int version = data.getInt(4);
+      if (version != VERSION)
+        throw new IOException("Unsupported golden file version " + version);
+      final int count = data.getInt(8);
+      final long indexOffset = data.getLong(12);
+      final int[] offsets = new int[count];
+      for (int i = 0; i < count; i++) {
+        offsets[i] = (int) data.getLong((int) (indexOffset + i * 8L));
+      }
+      return new GoldenFile(data, offsets);
+    }
+  }
+
+  /**
+   * Size int.
+   *
+   * @return the int
+   */
+  public int size() {
+    return offsets.length;
+  }
+
+  /**
+   * Decodes the inputs of a case.
+   *
+   * @param index the index
+   * @return the tensor [ ]
+   */
+  @Nonnull
+  public Tensor[] getInput(final int index) {
+    final ByteBuffer buffer = caseBuffer(index);
+    final Tensor[] inputs = new Tensor[buffer.getInt()];
+    for (int i = 0; i < inputs.length; i++) {
+      inputs[i] = readTensor(buffer);
+    }
+    return inputs;
+  }
+
+  /**
+   * Decodes the expected output of a case, skipping over its inputs.
+   *
+   * @param index the index
+   * @return the tensor
+   */
+  @Nonnull
+  public Tensor getOutput(final int index) {
+    final ByteBuffer buffer = caseBuffer(index);
+    final int inputs = buffer.getInt();
+    for (int i = 0; i < inputs; i++) {
+      skipTensor(buffer);
+    }
+    return readTensor(buffer);
+  }
+
+  @Nonnull
+  private ByteBuffer caseBuffer(final int index) {
+    // Duplicates keep concurrent readers from sharing a position
+    final ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    buffer.position(offsets[index]);
+    return buffer;
+  }
+
+  @Nonnull
+  private static Tensor readTensor(@Nonnull final ByteBuffer buffer) {
+    final int[] dims = new int[buffer.getInt()];
+    for (int i = 0; i < dims.length; i++) {
+      dims[i] = buffer.getInt();
+    }
+    final Tensor tensor = new Tensor(dims);
+    final double[] values = tensor.getData();
+    buffer.asDoubleBuffer().get(values);
+    buffer.position(buffer.position() + values.length * 8);
+    return tensor;
+  }
+
+  private static void skipTensor(@Nonnull final ByteBuffer buffer) {
+    final int rank = buffer.getInt();
+    int length = 1;
+    for (int i = 0; i < rank; i++) {
+      length *= buffer.getInt();
+    }
+    buffer.position(buffer.position() + length * 8);
+  }
+
+  private static int encodedSize(@Nonnull final Tensor tensor) {
+    return 4 + 4 * tensor.getDimensions().length + 8 * tensor.length();
+  }
+
+  private static void writeTensor(@Nonnull final ByteBuffer buffer, @Nonnull final Tensor tensor) {
+    final int[] dims = tensor.getDimensions();
+    buffer.putInt(dims.length);
+    for (int dim : dims) {
+      buffer.putInt(dim);
+    }
+    final double[] values = tensor.getData();
+    buffer.asDoubleBuffer().put(values);
+    buffer.position(buffer.position() + values.length * 8);
+  }
+
+  /**
+   * Writes a new golden file, one case at a time. Cases go to a temporary file next to the
+   * target, which replaces any existing file only when {@link #commit()} is called; closing
+   * without committing discards the recording and leaves the existing file untouched.
+   */
+  public static class Recorder implements AutoCloseable {
+    @Nonnull
+    private final File file;
+    @Nonnull
+    private final File temp;
+    @Nonnull
+    private final FileChannel channel;
+    private final List<Long> offsets = new ArrayList<>();
+    private long position = HEADER_SIZE;
+    private boolean committed = false;
+
+    /**
+     * Instantiates a new Recorder.
+     *
+     * @param file the file
+     * @throws IOException the io exception
+     */
+    public Recorder(@Nonnull final File file) throws IOException {
+      final File parent = file.getAbsoluteFile().getParentFile();
+      if (null != parent)
+        parent.mkdirs();
+      this.file = file;
+      this.temp = File.createTempFile(file.getName(), ".tmp", parent);
+      this.channel = FileChannel.open(temp.toPath(), StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Appends a case.
+     *
+     * @param input  the input
+     * @param output the output
+     * @throws IOException the io exception
+     */
+    public void add(@Nonnull final Tensor[] input, @Nonnull final Tensor output) throws IOException {
+      try {
+        int size = 4 + encodedSize(output);
+        for (Tensor tensor : input) {
+          size += encodedSize(tensor);
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(input.length);
+        for (Tensor tensor : input) {
+          writeTensor(buffer, tensor);
+        }
+        writeTensor(buffer, output);
+        buffer.flip();
+        offsets.add(position);
+        write(buffer, position);
+        position += size;
+      } finally {
+        RefUtil.freeRef(input);
+        output.freeRef();
+      }
+    }
+
+    /**
+     * Writes the index and header, then atomically moves the recording into place.
+     *
+     * @throws IOException the io exception
+     */
+    public void commit() throws IOException {
+      final ByteBuffer index = ByteBuffer.allocate(offsets.size() * 8).order(ByteOrder.LITTLE_ENDIAN);
+      for (long offset : offsets) {
+        index.putLong(offset);
+      }
+      index.flip();
+      write(index, position);
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(offsets.size()).putLong(position);
+      header.flip();
+      write(header, 0);
+      channel.close();
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      committed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        channel.close();
+      } finally {
+        if (!committed)
+          temp.delete();
+      }
+    }
+
+    private void write(@Nonnull final ByteBuffer buffer, long at) throws IOException {
+      while (buffer.hasRemaining()) {
+        at += channel.write(buffer, at);
+      }
+    }
+  }
+}
@@ -25,7 +25,9 @@ import com.simiacryptus.lang.UncheckedSupplier;
 import com.simiacryptus.mindseye.lang.*;
 import com.simiacryptus.mindseye.layers.Explodable;
 import com.simiacryptus.mindseye.network.DAGNetwork;
+import com.simiacryptus.mindseye.test.EvalContext;
 import com.simiacryptus.mindseye.test.GraphVizNetworkInspector;
+import com.simiacryptus.mindseye.test.TestSeeds;
 import com.simiacryptus.notebook.NotebookOutput;
 import com.simiacryptus.notebook.TableOutput;
 import com.simiacryptus.ref.lang.LifecycleException;
@@ -85,6 +87,22 @@ public abstract class LayerTests extends NotebookTestBase {
     return getBatchingTester(1e-2, true, this.testingBatchSize);
   }
 
+  /**
+   * Gets serialization tester. The timing benchmark, the snapshot round trip and the
+   * streaming json check are enabled by the mindseye.serialization.benchmark,
+   * mindseye.serialization.snapshot and mindseye.serialization.streaming system properties.
+   *
+   * @return the serialization tester
+   */
+  @Nonnull
+  protected SerializationTest getSerializationTester() {
+    SerializationTest serializationTest = new SerializationTest();
+    serializationTest.setBenchmark(Boolean.getBoolean("mindseye.serialization.benchmark"));
+    serializationTest.setSnapshot(Boolean.getBoolean("mindseye.serialization.snapshot"));
+    serializationTest.setStreaming(Boolean.getBoolean("mindseye.serialization.streaming"));
+    return serializationTest;
+  }
+
   /**
    * Gets derivative tester.
    *
@@ -159,6 +177,36 @@ public abstract class LayerTests extends NotebookTestBase {
     return new RefHashMap<>();
   }
 
+  /**
+   * Gets the golden input/output file for this layer. By default goldens are only used
+   * when the mindseye.golden.dir system property names a directory.
+   *
+   * @return the golden file
+   */
+  @Nullable
+  protected File getGoldenFile() {
+    String dir = System.getProperty("mindseye.golden.dir");
+    if (null == dir)
+      return null;
+    return new File(dir, getTestClass().getCanonicalName() + ".golden");
+  }
+
+  /**
+   * Gets the reference io tester. Setting the mindseye.golden.record system property
+   * switches it to rewriting the golden file from the current outputs, and
+   * mindseye.golden.parallelism shards the cases across that many workers.
+   *
+   * @return the reference io tester
+   */
+  @Nonnull
+  protected ReferenceIO getReferenceIOTester() {
+    ReferenceIO referenceIO = new ReferenceIO(getReferenceIO());
+    referenceIO.setGoldenFile(getGoldenFile());
+    referenceIO.setRecord(Boolean.getBoolean("mindseye.golden.record"));
+    referenceIO.setParallelism(Integer.getInteger("mindseye.golden.parallelism", 1));
+    return referenceIO;
+  }
+
   /**
    * Gets reference layer.
    *
@@ -223,7 +271,9 @@ public abstract class LayerTests extends NotebookTestBase {
   }
 
   /**
-   * Gets training tester.
+   * Gets training tester. The mindseye.training.sampled system property generates the
+   * model learning rows from a seeded {@link SampleSource}, with
+   * mindseye.training.batches rows evaluated mindseye.training.evalBatchSize at a time.
    *
    * @return the training tester
    */
@@ -242,7 +292,11 @@ public abstract class LayerTests extends NotebookTestBase {
         return LayerTests.this.lossLayer();
       }
     };
-    trainingTester.setBatches(testingBatchSize);
+    trainingTester.setBatches(Integer.getInteger("mindseye.training.batches", testingBatchSize));
+    trainingTester.setEvalBatchSize(Integer.getInteger("mindseye.training.evalBatchSize", 0));
+    trainingTester.setSampled(Boolean.getBoolean("mindseye.training.sampled"));
+    trainingTester.setConcurrent(Boolean.getBoolean("mindseye.training.concurrent"));
+    trainingTester.setRacing(Boolean.getBoolean("mindseye.training.race"));
     return trainingTester;
   }
 
@@ -432,9 +486,37 @@ public abstract class LayerTests extends NotebookTestBase {
       }
     };
     batchingTester.setBatchSize(testingBatchSize);
+    batchingTester.setSweepSizes(sweepSizes());
     return batchingTester;
   }
 
+  /**
+   * Gets the batch size sweep set by the mindseye.batching.sweep system property: "true"
+   * for {@link BatchingTester#DEFAULT_SWEEP_SIZES}, or a comma-separated list of sizes.
+   * Null, disabling the sweep, when the property is not set.
+   *
+   * @return the int [ ]
+   */
+  @Nullable
+  protected static int[] sweepSizes() {
+    final String sweep = System.getProperty("mindseye.batching.sweep");
+    if (null == sweep || sweep.isEmpty() || "false".equalsIgnoreCase(sweep))
+      return null;
+    if ("true".equalsIgnoreCase(sweep))
+      return BatchingTester.DEFAULT_SWEEP_SIZES;
+    return Arrays.stream(sweep.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+  }
+
+  /**
+   * Gets the seed for one test method of this class; see {@link TestSeeds}.
+   *
+   * @param testName the test name
+   * @return the seed
+   */
+  protected long testSeed(@Nonnull String testName) {
+    return TestSeeds.seed(getClass().getName() + "#" + testName);
+  }
+
   /**
    * Random double.
    *
@@ -569,6 +651,7 @@ public abstract class LayerTests extends NotebookTestBase {
       test.freeRef();
       out_exceptions.freeRef();
       layerTestParameters.freeRef();
+      EvalContext.getDefault().reset();
       RefSystem.gc();
     }
 
@@ -585,6 +668,14 @@ public abstract class LayerTests extends NotebookTestBase {
    */
   protected void run(@Nonnull NotebookOutput log, ComponentTest<?> test, @Nonnull int[][] dims, long seed) {
     logger.info("Seed: " + seed);
+    if (TestSeeds.isReproducible()) {
+      // Inputs, training and equivalency checks all follow the per-test seed
+      random.setSeed(seed);
+      if (test instanceof TrainingTester)
+        ((TrainingTester) test).setSeed(seed);
+      if (test instanceof EquivalencyTester)
+        ((EquivalencyTester) test).setSeed(seed);
+    }
     printJavadoc(log);
     final Layer layer = getLayer();
     TableOutput results = new TableOutput();
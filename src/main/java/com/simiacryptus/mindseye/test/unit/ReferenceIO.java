@@ -22,17 +22,27 @@ package com.simiacryptus.mindseye.test.unit;
 import com.simiacryptus.mindseye.lang.Layer;
 import com.simiacryptus.mindseye.lang.Tensor;
 import com.simiacryptus.mindseye.test.SimpleEval;
+import com.simiacryptus.mindseye.test.TestUtil;
 import com.simiacryptus.mindseye.test.ToleranceStatistics;
 import com.simiacryptus.notebook.NotebookOutput;
 import com.simiacryptus.ref.lang.RefUtil;
 import com.simiacryptus.ref.wrappers.RefArrays;
 import com.simiacryptus.ref.wrappers.RefHashMap;
+import com.simiacryptus.ref.wrappers.RefSet;
 import com.simiacryptus.ref.wrappers.RefString;
+import com.simiacryptus.util.Util;
 import com.simiacryptus.util.data.DoubleStatistics;
 import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
 
 /**
  * The type Reference io.
@@ -43,6 +53,12 @@ public class ReferenceIO extends ComponentTestBase<ToleranceStatistics> {
    */
   @Nullable
   final RefHashMap<Tensor[], Tensor> referenceIO;
+  @Nullable
+  private File goldenFile = null;
+  private boolean record = false;
+  private double tolerance = 1e-4;
+  private int parallelism = 1;
+  private int sampleSize = 3;
 
   /**
    * Instantiates a new Reference io.
@@ -53,25 +69,128 @@ public class ReferenceIO extends ComponentTestBase<ToleranceStatistics> {
     this.referenceIO = referenceIO;
   }
 
+  /**
+   * Gets golden file.
+   *
+   * @return the golden file
+   */
+  @Nullable
+  public File getGoldenFile() {
+    return goldenFile;
+  }
+
+  /**
+   * Sets the on-disk golden store for this layer; see {@link GoldenFile}.
+   *
+   * @param goldenFile the golden file
+   */
+  public void setGoldenFile(@Nullable File goldenFile) {
+    this.goldenFile = goldenFile;
+  }
+
+  /**
+   * Is record boolean.
+   *
+   * @return the boolean
+   */
+  public boolean isRecord() {
+    return record;
+  }
+
+  /**
+   * When set, the golden file is rewritten from the current outputs instead of being
+   * verified against.
+   *
+   * @param record the record
+   */
+  public void setRecord(boolean record) {
+    this.record = record;
+  }
+
+  /**
+   * Gets tolerance.
+   *
+   * @return the tolerance
+   */
+  public double getTolerance() {
+    return tolerance;
+  }
+
+  /**
+   * Sets tolerance.
+   *
+   * @param tolerance the tolerance
+   */
+  public void setTolerance(double tolerance) {
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * Gets parallelism.
+   *
+   * @return the parallelism
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Sets the number of workers the cases are sharded across; each worker evaluates its own
+   * copy of the layer.
+   *
+   * @param parallelism the parallelism
+   */
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Gets sample size.
+   *
+   * @return the sample size
+   */
+  public int getSampleSize() {
+    return sampleSize;
+  }
+
+  /**
+   * Sets how many passing cases are rendered in full; failing cases are always rendered.
+   *
+   * @param sampleSize the sample size
+   */
+  public void setSampleSize(int sampleSize) {
+    this.sampleSize = sampleSize;
+  }
 
   @Nullable
   @Override
   public ToleranceStatistics test(@Nonnull final NotebookOutput log, @Nonnull final Layer layer,
                                   @Nonnull final Tensor... inputPrototype) {
+    if (null != goldenFile && isRecord()) {
+      log.h1("Recording Golden Input/Output Pairs");
+      log.eval(RefUtil.wrapInterface(() -> {
+        return recordGolden(layer.addRef(), RefUtil.addRef(inputPrototype));
+      }, layer.addRef(), RefUtil.addRef(inputPrototype)));
+    } else if (null != goldenFile && goldenFile.exists()) {
+      log.h1("Golden Input/Output Pairs");
+      log.p(RefString.format("Verify the layer against recorded input/output pairs, showing failures and the first %d cases:", sampleSize));
+      ToleranceStatistics statistics = log.eval(RefUtil.wrapInterface(() -> {
+        return testGolden(layer.addRef());
+      }, layer.addRef()));
+      layer.freeRef();
+      RefUtil.freeRef(inputPrototype);
+      return statistics;
+    }
     assert referenceIO != null;
     if (!referenceIO.isEmpty()) {
       log.h1("Reference Input/Output Pairs");
-      log.p("Display pre-setBytes input/output example pairs:");
-      referenceIO.forEach(RefUtil.wrapInterface((input, output) -> {
-        @Nonnull final SimpleEval evalObj = log.eval(() -> {
-          @Nonnull final SimpleEval eval = SimpleEval.run(layer.addRef(), RefUtil.addRef(input));
-          System.out.println(toString(RefUtil.addRef(input), RefUtil.addRef(output), eval.addRef()));
-          return eval;
-        });
-        verifyNonZero(evalObj);
-        RefUtil.freeRef(input);
-        RefUtil.freeRef(output);
-      }));
+      log.p(RefString.format("Display pre-setBytes input/output example pairs, showing mismatches and the first %d cases:", sampleSize));
+      ToleranceStatistics statistics = log.eval(RefUtil.wrapInterface(() -> {
+        return testReference(layer.addRef());
+      }, layer.addRef()));
+      layer.freeRef();
+      RefUtil.freeRef(inputPrototype);
+      return statistics;
     } else {
       log.h1("Example Input/Output Pair");
       log.p("Display input/output pairs from random executions:");
@@ -87,10 +206,173 @@ public class ReferenceIO extends ComponentTestBase<ToleranceStatistics> {
     return null;
   }
 
+  /**
+   * Evaluates every case of the golden file, decoding each case only when it is reached.
+   *
+   * @param layer the layer
+   * @return the tolerance statistics
+   */
+  @Nonnull
+  public ToleranceStatistics testGolden(@Nonnull final Layer layer) {
+    assert goldenFile != null;
+    final GoldenFile golden;
+    try {
+      golden = GoldenFile.open(goldenFile);
+    } catch (IOException e) {
+      layer.freeRef();
+      throw Util.throwException(e);
+    }
+    final CaseSummary summary = evalCases(layer, golden.size(), golden::getInput, golden::getOutput);
+    System.out.println(RefString.format("%d cases, %d failures: %s", golden.size(), summary.mismatches, summary.statistics));
+    if (0 < summary.mismatches) {
+      throw new AssertionError(RefString.format("%d of %d golden cases failed: %s", summary.mismatches, golden.size(),
+          summary.statistics));
+    }
+    return summary.statistics;
+  }
+
+  /**
+   * Evaluates every pair of the in-memory reference map. Mismatches are reported but, as
+   * before, only an all-zero output fails the test.
+   *
+   * @param layer the layer
+   * @return the tolerance statistics
+   */
+  @Nonnull
+  public ToleranceStatistics testReference(@Nonnull final Layer layer) {
+    assert referenceIO != null;
+    final List<Tensor[]> inputs = new ArrayList<>();
+    final List<Tensor> outputs = new ArrayList<>();
+    referenceIO.forEach((input, output) -> {
+      inputs.add(input);
+      outputs.add(output);
+    });
+    try {
+      final CaseSummary summary = evalCases(layer, inputs.size(), i -> RefUtil.addRef(inputs.get(i)),
+          i -> outputs.get(i).addRef());
+      System.out.println(RefString.format("%d cases, %d mismatches: %s", inputs.size(), summary.mismatches,
+          summary.statistics));
+      if (0 < summary.zeros) {
+        throw new AssertionError(RefString.format("%d of %d reference cases produced zero output", summary.zeros,
+            inputs.size()));
+      }
+      return summary.statistics;
+    } finally {
+      inputs.forEach(RefUtil::freeRef);
+      outputs.forEach(RefUtil::freeRef);
+    }
+  }
+
+  /**
+   * Writes the current outputs of the layer as the new golden cases. The inputs are those
+   * of the in-memory reference map, or the input prototype when the map is empty.
+   *
+   * @param layer          the layer
+   * @param inputPrototype the input prototype
+   * @return the string
+   */
+  @Nonnull
+  public String recordGolden(@Nonnull final Layer layer, @Nonnull final Tensor[] inputPrototype) {
+    assert goldenFile != null;
+    final List<Tensor[]> inputs = new ArrayList<>();
+    if (null != referenceIO && !referenceIO.isEmpty()) {
+      RefSet<Tensor[]> keys = referenceIO.keySet();
+      keys.forEach(inputs::add);
+      keys.freeRef();
+      RefUtil.freeRef(inputPrototype);
+    } else {
+      inputs.add(inputPrototype);
+    }
+    try (GoldenFile.Recorder recorder = new GoldenFile.Recorder(goldenFile)) {
+      for (Tensor[] input : inputs) {
+        final SimpleEval eval = SimpleEval.run(layer.addRef(), false, RefUtil.addRef(input));
+        final Tensor output = eval.getOutput();
+        eval.freeRef();
+        assert output != null;
+        recorder.add(input, output);
+      }
+      recorder.commit();
+    } catch (IOException e) {
+      throw Util.throwException(e);
+    } finally {
+      layer.freeRef();
+    }
+    return RefString.format("Recorded %d cases to %s", inputs.size(), goldenFile.getAbsolutePath());
+  }
+
+  @Nonnull
+  private CaseSummary evalCases(@Nonnull final Layer layer, final int count,
+                                @Nonnull final IntFunction<Tensor[]> inputs,
+                                @Nonnull final IntFunction<Tensor> expected) {
+    // Cases are dealt round-robin into one shard per worker, each with its own copy of the
+    // layer; reports are kept by case index so the printed order does not depend on timing
+    final int shards = Math.max(1, Math.min(getParallelism(), count));
+    final CaseSummary[] shardSummaries = new CaseSummary[shards];
+    final String[] reports = new String[count];
+    try {
+      TestUtil.runInPool(shards, () -> {
+        IntStream stream = IntStream.range(0, shards);
+        if (shards > 1)
+          stream = stream.parallel();
+        stream.forEach(shard -> {
+          final Layer shardLayer = shards > 1 ? layer.copy() : layer.addRef();
+          try {
+            final CaseSummary summary = new CaseSummary();
+            for (int i = shard; i < count; i += shards) {
+              summary.add(evalCase(shardLayer.addRef(), i, inputs.apply(i), expected.apply(i), reports));
+            }
+            shardSummaries[shard] = summary;
+          } finally {
+            shardLayer.freeRef();
+          }
+        });
+        return null;
+      });
+    } finally {
+      layer.freeRef();
+    }
+    for (String report : reports) {
+      if (null != report)
+        System.out.println(report);
+    }
+    return Arrays.stream(shardSummaries).reduce(CaseSummary::combine).orElseGet(CaseSummary::new);
+  }
+
+  @Nonnull
+  private CaseSummary evalCase(@Nonnull final Layer layer, final int index, @Nonnull final Tensor[] input,
+                               @Nonnull final Tensor expected, @Nonnull final String[] reports) {
+    try {
+      final SimpleEval eval = SimpleEval.run(layer.addRef(), false, RefUtil.addRef(input));
+      final Tensor actual = eval.getOutput();
+      eval.freeRef();
+      assert actual != null;
+      final CaseSummary summary = new CaseSummary();
+      summary.statistics = new ToleranceStatistics().accumulate(actual.getData(), expected.getData());
+      final boolean mismatch = !(summary.statistics.absoluteTol.getMax() < tolerance);
+      final boolean zero = actual.rms() == 0;
+      actual.freeRef();
+      if (mismatch)
+        summary.mismatches++;
+      if (zero)
+        summary.zeros++;
+      if (mismatch || zero || index < sampleSize) {
+        reports[index] = RefString.format("Case %d%s: %s\n%s", index, mismatch || zero ? " (FAILED)" : "",
+            summary.statistics, toString(RefUtil.addRef(input), expected.addRef(),
+                SimpleEval.run(layer.addRef(), RefUtil.addRef(input))));
+      }
+      return summary;
+    } finally {
+      RefUtil.freeRef(input);
+      expected.freeRef();
+      layer.freeRef();
+    }
+  }
+
   @Nonnull
   @Override
   public String toString() {
-    return "ReferenceIO{" + "referenceIO=" + referenceIO + '}';
+    return "ReferenceIO{" + "referenceIO=" + referenceIO + ", goldenFile=" + goldenFile + ", record=" + record
+        + ", parallelism=" + parallelism + ", sampleSize=" + sampleSize + '}';
   }
 
   public void _free() {
@@ -163,4 +445,42 @@ public class ReferenceIO extends ComponentTestBase<ToleranceStatistics> {
       evalOutput.freeRef();
     }
   }
+
+  private static class CaseSummary {
+    /**
+     * The Statistics.
+     */
+    ToleranceStatistics statistics = new ToleranceStatistics();
+    /**
+     * The Mismatches.
+     */
+    int mismatches;
+    /**
+     * The Zeros.
+     */
+    int zeros;
+
+    /**
+     * Add.
+     *
+     * @param right the right
+     */
+    void add(@Nonnull CaseSummary right) {
+      statistics = statistics.combine(right.statistics);
+      mismatches += right.mismatches;
+      zeros += right.zeros;
+    }
+
+    /**
+     * Combine case summary.
+     *
+     * @param right the right
+     * @return the case summary
+     */
+    @Nonnull
+    CaseSummary combine(@Nonnull CaseSummary right) {
+      add(right);
+      return this;
+    }
+  }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.test.unit;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.ref.lang.RefUtil;
+import com.simiacryptus.ref.lang.ReferenceCountingBase;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+
+/**
+ * A reproducible, unbounded source of training rows derived from a set of input
+ * prototypes. Row {@code i} is generated on demand by randomizing a copy of each prototype
+ * with a generator seeded from the source seed and {@code i}, so any row can be rebuilt
+ * at any time without holding the others.
+ */
+public class SampleSource extends ReferenceCountingBase {
+  @Nonnull
+  private final Tensor[] prototype;
+  private final long seed;
+  private final int size;
+  @Nonnull
+  private final TrainingTester.RandomizationMode randomizationMode;
+
+  /**
+   * Instantiates a new Sample source.
+   *
+   * @param prototype         the prototype
+   * @param seed              the seed
+   * @param size              the size
+   * @param randomizationMode the randomization mode
+   */
+  public SampleSource(@Nonnull final Tensor[] prototype, final long seed, final int size,
+                      @Nonnull final TrainingTester.RandomizationMode randomizationMode) {
+    this.prototype = prototype;
+    this.seed = seed;
+    this.size = size;
+    this.randomizationMode = randomizationMode;
+  }
+
+  /**
+   * Size int.
+   *
+   * @return the int
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Generates one row.
+   *
+   * @param row the row
+   * @return the tensor [ ]
+   */
+  @Nonnull
+  public Tensor[] get(final long row) {
+    final Random random = new Random(rowSeed(row));
+    final Tensor[] tensors = new Tensor[prototype.length];
+    for (int i = 0; i < tensors.length; i++) {
+      tensors[i] = prototype[i].copy();
+      randomizationMode.shuffle(random, tensors[i].getData());
+    }
+    return tensors;
+  }
+
+  /**
+   * Generates a contiguous range of rows.
+   *
+   * @param from the first row, inclusive
+   * @param to   the last row, exclusive
+   * @return the tensor [ ] [ ]
+   */
+  @Nonnull
+  public Tensor[][] rows(final int from, final int to) {
+    final Tensor[][] rows = new Tensor[to - from][];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = get(from + i);
+    }
+    return rows;
+  }
+
+  public void _free() {
+    RefUtil.freeRef(prototype);
+    super._free();
+  }
+
+  @Nonnull
+  public @Override
+  @SuppressWarnings("unused")
+  SampleSource addRef() {
+    return (SampleSource) super.addRef();
+  }
+
+  private long rowSeed(final long row) {
+    // SplitMix64 finalizer, so neighbouring rows get unrelated generators
+    long z = seed + (row + 1) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
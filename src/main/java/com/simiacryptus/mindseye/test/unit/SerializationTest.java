@@ -22,25 +22,45 @@ package com.simiacryptus.mindseye.test.unit;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.simiacryptus.mindseye.lang.Layer;
 import com.simiacryptus.mindseye.lang.SerialPrecision;
 import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.test.ModelSnapshot;
 import com.simiacryptus.mindseye.test.ToleranceStatistics;
 import com.simiacryptus.notebook.NotebookOutput;
+import com.simiacryptus.notebook.TableOutput;
 import com.simiacryptus.ref.lang.RefUtil;
 import com.simiacryptus.ref.wrappers.RefArrays;
 import com.simiacryptus.ref.wrappers.RefHashMap;
+import com.simiacryptus.ref.wrappers.RefList;
 import com.simiacryptus.ref.wrappers.RefString;
+import com.simiacryptus.ref.wrappers.RefSystem;
 import com.simiacryptus.util.Util;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigInteger;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
@@ -49,9 +69,18 @@ import java.util.zip.ZipFile;
  * The type Serialization test.
  */
 public class SerializationTest extends ComponentTestBase<ToleranceStatistics> {
+  /**
+   * The number of weights above which the json check streams even when
+   * {@link #isStreaming()} is off; the pretty-printed string of such a model would take
+   * several times its weights in heap.
+   */
+  public static final long STREAMING_THRESHOLD = 1L << 24;
   @Nonnull
   private final RefHashMap<SerialPrecision, Layer> models = new RefHashMap<>();
   private boolean persist = false;
+  private boolean benchmark = false;
+  private boolean streaming = false;
+  private boolean snapshot = false;
 
   /**
    * Gets models.
@@ -81,6 +110,65 @@ public class SerializationTest extends ComponentTestBase<ToleranceStatistics> {
     this.persist = persist;
   }
 
+  /**
+   * Is benchmark boolean.
+   *
+   * @return the boolean
+   */
+  public boolean isBenchmark() {
+    return benchmark;
+  }
+
+  /**
+   * Enables timing of each serialization format. Results are written to the notebook
+   * and to a json file next to it.
+   *
+   * @param benchmark the benchmark
+   */
+  public void setBenchmark(boolean benchmark) {
+    this.benchmark = benchmark;
+  }
+
+  /**
+   * Is streaming boolean.
+   *
+   * @return the boolean
+   */
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  /**
+   * Enables the streaming json check, which writes the model through a JsonWriter into a
+   * gzip file instead of pretty-printing it into a string, so it works on models too large
+   * to hold as a single string. Models with more than {@link #STREAMING_THRESHOLD} weights
+   * are always streamed.
+   *
+   * @param streaming the streaming
+   */
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  /**
+   * Is snapshot boolean.
+   *
+   * @return the boolean
+   */
+  public boolean isSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Enables the {@link ModelSnapshot} round trip, which writes a snapshot and a zip file
+   * per layer and compares their load times.
+   *
+   * @param snapshot the snapshot
+   */
+  public void setSnapshot(boolean snapshot) {
+    this.snapshot = snapshot;
+  }
+
   /**
    * Compress gz byte [ ].
    *
@@ -123,38 +211,45 @@ public class SerializationTest extends ComponentTestBase<ToleranceStatistics> {
     log.p("This apply will demonstrate the key's JSON serialization, and verify deserialization integrity.");
 
     String prettyPrint = "";
+    long jsonLength = 0;
     log.h2("Raw Json");
-    try {
-      Gson gson = new GsonBuilder().setPrettyPrinting().create();
-      prettyPrint = gson.toJson(log.eval(RefUtil.wrapInterface(() -> {
-        final JsonObject json = layer.getJson().getAsJsonObject();
-        @Nonnull final Layer echo = Layer.fromJson(json);
-        if (layer == echo) {
-          echo.freeRef();
-          throw new AssertionError("Serialization did not copy");
-        }
-        if (!layer.equals(echo)) {
+    if (isStreaming() || stateSize(layer.addRef()) > STREAMING_THRESHOLD) {
+      // Failures here, including running out of memory, fail the test
+      jsonLength = streamJson(log, layer.addRef());
+    } else {
+      try {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        prettyPrint = gson.toJson(log.eval(RefUtil.wrapInterface(() -> {
+          final JsonObject json = layer.getJson().getAsJsonObject();
+          @Nonnull final Layer echo = Layer.fromJson(json);
+          if (layer == echo) {
+            echo.freeRef();
+            throw new AssertionError("Serialization did not copy");
+          }
+          if (!layer.equals(echo)) {
+            echo.freeRef();
+            throw new AssertionError("Serialization not equal");
+          }
           echo.freeRef();
-          throw new AssertionError("Serialization not equal");
-        }
-        echo.freeRef();
-        return json;
-      }, layer.addRef())));
-      @Nonnull
-      String filename = layer.getClass().getSimpleName() + "_" + log.getFileName() + ".json";
-      log.p(log.file(prettyPrint, filename,
-          String.format("Wrote Model to %s; %s characters", filename, prettyPrint.length())));
-    } catch (RuntimeException e) {
-      e.printStackTrace();
-      Util.sleep(1000);
-    } catch (OutOfMemoryError e) {
-      e.printStackTrace();
-      Util.sleep(1000);
+          return json;
+        }, layer.addRef())));
+        @Nonnull
+        String filename = layer.getClass().getSimpleName() + "_" + log.getFileName() + ".json";
+        log.p(log.file(prettyPrint, filename,
+            String.format("Wrote Model to %s; %s characters", filename, prettyPrint.length())));
+        jsonLength = prettyPrint.length();
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+        Util.sleep(1000);
+      } catch (OutOfMemoryError e) {
+        e.printStackTrace();
+        Util.sleep(1000);
+      }
     }
     log.p("");
     @Nonnull
     Object outSync = new Object();
-    if (prettyPrint.isEmpty() || prettyPrint.length() > 1024 * 64)
+    if (0 == jsonLength || jsonLength > 1024 * 64)
       RefArrays.stream(SerialPrecision.values()).parallel()
           .forEach(RefUtil.wrapInterface((Consumer<? super SerialPrecision>) precision -> {
             try {
@@ -192,14 +287,239 @@ public class SerializationTest extends ComponentTestBase<ToleranceStatistics> {
             }
           }, layer.addRef()));
 
+    if (isSnapshot()) {
+      log.h2("Snapshot");
+      log.p("The memory-mapped snapshot format must restore an equal model; we also compare its load time to the zip format:");
+      log.eval(RefUtil.wrapInterface(() -> {
+        return testSnapshot(log, layer.addRef());
+      }, layer.addRef()));
+    }
+    if (isBenchmark()) {
+      log.h2("Benchmark");
+      log.p("Serialization and deserialization timings, run sequentially for each format:");
+      final List<Map<CharSequence, Object>> rows = log.eval(RefUtil.wrapInterface(() -> {
+        return benchmark(log, layer.addRef());
+      }, layer.addRef()));
+      TableOutput table = new TableOutput();
+      rows.forEach(table::putRow);
+      log.out(table.toMarkdownTable());
+      @Nonnull
+      String filename = layer.getClass().getSimpleName() + "_" + log.getFileName() + "_serialization.json";
+      log.p(log.file(new GsonBuilder().setPrettyPrinting().create().toJson(rows), filename,
+          String.format("Wrote benchmark to %s", filename)));
+    }
     layer.freeRef();
     return null;
   }
 
+  /**
+   * Streams the layer through a JsonWriter into a gzip file and back through a JsonReader,
+   * without ever building a json tree or string of the weights. The document holds the
+   * layer's {@link ModelSnapshot#getStructure(Layer) structure}, which is small, followed
+   * by every {@link Layer#state()} buffer written and read value by value; on read the
+   * values go straight into the rebuilt layer's state. The hash of the uncompressed bytes
+   * read must match the hash of those written, and the rebuilt model must equal the
+   * original.
+   *
+   * @param log   the log
+   * @param layer the layer
+   * @return the uncompressed json size in bytes
+   */
+  public long streamJson(@Nonnull final NotebookOutput log, @Nonnull final Layer layer) {
+    @Nonnull
+    String filename = layer.getClass().getSimpleName() + "_" + log.getFileName() + ".json.gz";
+    @Nonnull
+    File file = new File(log.getResourceDir(), filename);
+    try {
+      final MessageDigest writeDigest = newDigest();
+      final CountingOutputStream counter;
+      try (JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new DigestOutputStream(
+          counter = new CountingOutputStream(new GZIPOutputStream(new FileOutputStream(file))), writeDigest),
+          StandardCharsets.UTF_8)))) {
+        writer.setLenient(true);
+        writer.beginObject();
+        writer.name("structure");
+        new Gson().toJson(ModelSnapshot.getStructure(layer.addRef()), writer);
+        writer.name("state").beginArray();
+        final RefList<double[]> state = layer.state();
+        assert state != null;
+        try {
+          for (int i = 0; i < state.size(); i++) {
+            writer.beginArray();
+            for (double value : state.get(i)) {
+              writer.value(value);
+            }
+            writer.endArray();
+          }
+        } finally {
+          state.freeRef();
+        }
+        writer.endArray().endObject();
+      }
+      final long length = counter.getByteCount();
+      final MessageDigest readDigest = newDigest();
+      @Nonnull final Layer echo;
+      try (BufferedReader buffered = new BufferedReader(new InputStreamReader(new DigestInputStream(
+          new GZIPInputStream(new FileInputStream(file)), readDigest), StandardCharsets.UTF_8));
+           JsonReader reader = new JsonReader(buffered)) {
+        reader.setLenient(true);
+        reader.beginObject();
+        expectName(reader, "structure");
+        echo = ModelSnapshot.fromStructure(new Gson().fromJson(reader, JsonObject.class));
+        try {
+          expectName(reader, "state");
+          readState(reader, echo.addRef());
+          reader.endObject();
+          // Consume any trailing bytes so the digest covers the whole stream
+          final char[] rest = new char[4096];
+          while (buffered.read(rest) >= 0) {
+          }
+        } catch (IOException | RuntimeException e) {
+          echo.freeRef();
+          throw e;
+        }
+      }
+      final byte[] hash = writeDigest.digest();
+      if (!Arrays.equals(hash, readDigest.digest())) {
+        echo.freeRef();
+        throw new AssertionError("Streamed json hash mismatch");
+      }
+      if (layer == echo) {
+        echo.freeRef();
+        throw new AssertionError("Serialization did not copy");
+      }
+      if (!layer.equals(echo)) {
+        echo.freeRef();
+        throw new AssertionError("Serialization not equal");
+      }
+      echo.freeRef();
+      log.p(log.link(file, RefString.format("Streamed Model to %s; %d bytes (%d compressed), sha-256 %s", filename,
+          length, file.length(), new BigInteger(1, hash).toString(16))));
+      return length;
+    } catch (IOException e) {
+      throw Util.throwException(e);
+    } finally {
+      layer.freeRef();
+      if (!isPersist())
+        file.delete();
+    }
+  }
+
+  private static void expectName(@Nonnull final JsonReader reader, @Nonnull final String name) throws IOException {
+    final String found = reader.nextName();
+    if (!name.equals(found))
+      throw new IOException(String.format("Expected %s, found %s", name, found));
+  }
+
+  private static void readState(@Nonnull final JsonReader reader, @Nonnull final Layer layer) throws IOException {
+    final RefList<double[]> state = layer.state();
+    layer.freeRef();
+    assert state != null;
+    try {
+      reader.beginArray();
+      for (int i = 0; i < state.size(); i++) {
+        final double[] buffer = state.get(i);
+        reader.beginArray();
+        for (int j = 0; j < buffer.length; j++) {
+          buffer[j] = reader.nextDouble();
+        }
+        reader.endArray();
+      }
+      reader.endArray();
+    } finally {
+      state.freeRef();
+    }
+  }
+
+  /**
+   * Round-trips the layer through {@link ModelSnapshot}, checks the result is equal, and
+   * compares its load latency with a double-precision zip.
+   *
+   * @param log   the log
+   * @param layer the layer
+   * @return the string
+   */
+  @Nonnull
+  public String testSnapshot(@Nonnull final NotebookOutput log, @Nonnull final Layer layer) {
+    @Nonnull
+    File snapshotFile = new File(log.getResourceDir(), log.getFileName() + "_snapshot.bin");
+    @Nonnull
+    File zipFile = new File(log.getResourceDir(), log.getFileName() + "_snapshot.zip");
+    try {
+      ModelSnapshot.write(layer.addRef(), snapshotFile);
+      layer.writeZip(zipFile, SerialPrecision.Double);
+      long start = RefSystem.nanoTime();
+      final Layer echo = ModelSnapshot.read(snapshotFile);
+      final long snapshotNanos = RefSystem.nanoTime() - start;
+      start = RefSystem.nanoTime();
+      try (ZipFile zip = new ZipFile(zipFile)) {
+        Layer.fromZip(zip).freeRef();
+      }
+      final long zipNanos = RefSystem.nanoTime() - start;
+      if (layer == echo) {
+        echo.freeRef();
+        throw new AssertionError("Snapshot did not copy");
+      }
+      if (!layer.equals(echo)) {
+        echo.freeRef();
+        throw new AssertionError("Snapshot not equal");
+      }
+      echo.freeRef();
+      return RefString.format("Snapshot: %.3fms load, %d bytes; Zip: %.3fms load, %d bytes",
+          snapshotNanos / 1e6, snapshotFile.length(), zipNanos / 1e6, zipFile.length());
+    } catch (IOException e) {
+      throw Util.throwException(e);
+    } finally {
+      layer.freeRef();
+      if (!isPersist()) {
+        snapshotFile.delete();
+        zipFile.delete();
+      }
+    }
+  }
+
+  /**
+   * Measures json and zip round trips for every {@link SerialPrecision}, recording size,
+   * wall time, throughput and peak heap for each.
+   *
+   * @param log   the log
+   * @param layer the layer
+   * @return the list
+   */
+  @Nonnull
+  public List<Map<CharSequence, Object>> benchmark(@Nonnull final NotebookOutput log, @Nonnull final Layer layer) {
+    final List<Map<CharSequence, Object>> rows = new ArrayList<>();
+    try {
+      rows.add(benchmarkJson(layer.addRef()));
+      @Nonnull
+      File snapshotFile = new File(log.getResourceDir(), log.getFileName() + "_bench_snapshot.bin");
+      try {
+        rows.add(benchmarkSnapshot(layer.addRef(), snapshotFile));
+      } finally {
+        if (!isPersist())
+          snapshotFile.delete();
+      }
+      for (SerialPrecision precision : SerialPrecision.values()) {
+        @Nonnull
+        File file = new File(log.getResourceDir(), log.getFileName() + "_bench_" + precision.name() + ".zip");
+        try {
+          rows.add(benchmarkZip(layer.addRef(), precision, file));
+        } finally {
+          if (!isPersist())
+            file.delete();
+        }
+      }
+    } finally {
+      layer.freeRef();
+    }
+    return rows;
+  }
+
   @Nonnull
   @Override
   public String toString() {
-    return "SerializationTest{" + "models=" + models + ", persist=" + persist + '}';
+    return "SerializationTest{" + "models=" + models + ", persist=" + persist + ", benchmark=" + benchmark
+        + ", streaming=" + streaming + ", snapshot=" + snapshot + '}';
   }
 
   public @SuppressWarnings("unused")
@@ -214,4 +534,112 @@ public class SerializationTest extends ComponentTestBase<ToleranceStatistics> {
   SerializationTest addRef() {
     return (SerializationTest) super.addRef();
   }
+
+  private static long stateSize(@Nonnull final Layer layer) {
+    RefList<double[]> state = layer.state();
+    layer.freeRef();
+    if (null == state)
+      return 0;
+    long size = 0;
+    for (int i = 0; i < state.size(); i++) {
+      size += state.get(i).length;
+    }
+    state.freeRef();
+    return size;
+  }
+
+  @Nonnull
+  private static Map<CharSequence, Object> benchmarkJson(@Nonnull final Layer layer) {
+    resetPeakHeap();
+    final long start = RefSystem.nanoTime();
+    final String json = layer.getJson().toString();
+    final long serialized = RefSystem.nanoTime();
+    final Layer echo = Layer.fromJson(new GsonBuilder().create().fromJson(json, JsonObject.class));
+    final long deserialized = RefSystem.nanoTime();
+    final long peakHeap = peakHeap();
+    echo.freeRef();
+    layer.freeRef();
+    return benchmarkRow("Json", json.getBytes(StandardCharsets.UTF_8).length, serialized - start,
+        deserialized - serialized, peakHeap);
+  }
+
+  @Nonnull
+  private static Map<CharSequence, Object> benchmarkZip(@Nonnull final Layer layer, @Nonnull final SerialPrecision precision,
+                                                        @Nonnull final File file) {
+    resetPeakHeap();
+    final long start = RefSystem.nanoTime();
+    try {
+      layer.writeZip(file, precision);
+    } finally {
+      layer.freeRef();
+    }
+    final long serialized = RefSystem.nanoTime();
+    try (ZipFile zipFile = new ZipFile(file)) {
+      Layer.fromZip(zipFile).freeRef();
+    } catch (IOException e) {
+      throw Util.throwException(e);
+    }
+    final long deserialized = RefSystem.nanoTime();
+    return benchmarkRow("Zip " + precision.name(), file.length(), serialized - start, deserialized - serialized,
+        peakHeap());
+  }
+
+  @Nonnull
+  private static Map<CharSequence, Object> benchmarkSnapshot(@Nonnull final Layer layer, @Nonnull final File file) {
+    resetPeakHeap();
+    try {
+      final long start = RefSystem.nanoTime();
+      ModelSnapshot.write(layer, file);
+      final long serialized = RefSystem.nanoTime();
+      ModelSnapshot.read(file).freeRef();
+      final long deserialized = RefSystem.nanoTime();
+      return benchmarkRow("Snapshot", file.length(), serialized - start, deserialized - serialized, peakHeap());
+    } catch (IOException e) {
+      throw Util.throwException(e);
+    }
+  }
+
+  @Nonnull
+  private static Map<CharSequence, Object> benchmarkRow(@Nonnull final String format, final long bytes,
+                                                        final long serializeNanos, final long deserializeNanos,
+                                                        final long peakHeap) {
+    final Map<CharSequence, Object> row = new LinkedHashMap<>();
+    row.put("format", format);
+    row.put("bytes", bytes);
+    row.put("serialize_ms", serializeNanos / 1e6);
+    row.put("serialize_MBps", bytes / 1e6 / Math.max(serializeNanos / 1e9, 1e-9));
+    row.put("deserialize_ms", deserializeNanos / 1e6);
+    row.put("deserialize_MBps", bytes / 1e6 / Math.max(deserializeNanos / 1e9, 1e-9));
+    row.put("wall_ms", (serializeNanos + deserializeNanos) / 1e6);
+    row.put("peak_heap_MiB", peakHeap * 1.0 / 0x100000);
+    return row;
+  }
+
+  @Nonnull
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw Util.throwException(e);
+    }
+  }
+
+  private static void resetPeakHeap() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP)
+        pool.resetPeakUsage();
+    }
+  }
+
+  /**
+   * Sum of the per-pool heap peaks since the last reset; an upper bound on the true peak.
+   */
+  private static long peakHeap() {
+    long sum = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP)
+        sum += pool.getPeakUsage().getUsed();
+    }
+    return sum;
+  }
 }
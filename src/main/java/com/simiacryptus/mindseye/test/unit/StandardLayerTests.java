@@ -55,7 +55,7 @@ public abstract class StandardLayerTests extends LayerTests {
    */
   @Nonnull
   protected RefList<ComponentTest<?>> getBigTests() {
-    return RefArrays.asList(getPerformanceTester(), getBatchingTester(), new ReferenceIO(getReferenceIO()),
+    return RefArrays.asList(getPerformanceTester(), getBatchingTester(), getReferenceIOTester(),
         getEquivalencyTester());
   }
 
@@ -76,7 +76,7 @@ public abstract class StandardLayerTests extends LayerTests {
    */
   @Nonnull
   protected RefList<ComponentTest<?>> getLittleTests() {
-    return RefArrays.asList(new SerializationTest(), getDerivativeTester());
+    return RefArrays.asList(getSerializationTester(), getDerivativeTester());
   }
 
   /**
@@ -86,7 +86,7 @@ public abstract class StandardLayerTests extends LayerTests {
    */
   public final void allTests(@Nonnull final NotebookOutput log) {
     printJavadoc(log);
-    long seed = (long) (Math.random() * Long.MAX_VALUE);
+    long seed = testSeed("allTests");
     @Nonnull int[][] smallDims = getSmallDims();
     final Layer smallLayer = getLayer();
     @Nonnull int[][] largeDims = getLargeDims();
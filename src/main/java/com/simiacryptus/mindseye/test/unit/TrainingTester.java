@@ -36,6 +36,7 @@ import com.simiacryptus.mindseye.opt.orient.GradientDescent;
 import com.simiacryptus.mindseye.opt.orient.LBFGS;
 import com.simiacryptus.mindseye.test.ProblemRun;
 import com.simiacryptus.mindseye.test.StepRecord;
+import com.simiacryptus.mindseye.test.TestSeeds;
 import com.simiacryptus.mindseye.test.TestUtil;
 import com.simiacryptus.notebook.NotebookOutput;
 import com.simiacryptus.ref.lang.RefIgnore;
@@ -52,8 +53,11 @@ import javax.swing.*;
 import java.awt.*;
 import java.util.List;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
 /**
  * The type Training tester.
@@ -63,16 +67,60 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
    * The Logger.
    */
   static final Logger logger = LoggerFactory.getLogger(TrainingTester.class);
+  /**
+   * The fitness below which a training run counts as converged.
+   */
+  static final double CONVERGED = 1e-9;
+  /**
+   * Gradient descent with weak line search conditions.
+   */
+  public static final OptimizerConfig GD_OPTIMIZER = new OptimizerConfig("GD", "Gradient Descent",
+      "First, we train using basic gradient descent method apply weak line search conditions.", Color.GRAY,
+      trainer -> {
+        trainer.setLineSearchFactory(label -> new ArmijoWolfeSearch());
+        trainer.setOrientation(new GradientDescent());
+      });
+  /**
+   * Gradient descent with a quadratic line search.
+   */
+  public static final OptimizerConfig CJGD_OPTIMIZER = new OptimizerConfig("CjGD", "Conjugate Gradient Descent",
+      "First, we use a conjugate gradient descent method, which converges the fastest for purely linear functions.",
+      Color.CYAN, trainer -> {
+        trainer.setLineSearchFactory(label -> new QuadraticSearch());
+        trainer.setOrientation(new GradientDescent());
+      });
+  /**
+   * Limited-memory BFGS.
+   */
+  public static final OptimizerConfig LBFGS_OPTIMIZER = new OptimizerConfig("LBFGS", "Limited-Memory BFGS",
+      "Next, we apply the same optimization using L-BFGS, which is nearly ideal for purely second-order or quadratic functions.",
+      Color.GREEN, trainer -> {
+        trainer.setLineSearchFactory(label -> new ArmijoWolfeSearch());
+        trainer.setOrientation(new LBFGS());
+        trainer.setIterationsPerSample(100);
+      });
 
   private int batches = 3;
   private RandomizationMode randomizationMode = RandomizationMode.Permute;
   private boolean verbose = true;
   private boolean throwExceptions = false;
+  private boolean concurrent = false;
+  private final Map<String, OptimizerConfig> optimizers = new LinkedHashMap<>();
+  private boolean racing = false;
+  private long raceSliceMillis = 2000;
+  private double raceMargin = 2.0;
+  private boolean sampled = false;
+  private int evalBatchSize = 0;
+  private long sampleSeed = LayerTests.seed;
+  private long seed = TestSeeds.seed(TrainingTester.class.getName());
 
   /**
    * Instantiates a new Training tester.
    */
   public TrainingTester() {
+    addOptimizer(GD_OPTIMIZER);
+    addOptimizer(CJGD_OPTIMIZER);
+    addOptimizer(LBFGS_OPTIMIZER);
   }
 
   /**
@@ -129,6 +177,187 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
     this.throwExceptions = throwExceptions;
   }
 
+  /**
+   * Is concurrent boolean.
+   *
+   * @return the boolean
+   */
+  public boolean isConcurrent() {
+    return concurrent;
+  }
+
+  /**
+   * Sets whether the optimizers of {@link #trainAll} run in parallel, each writing to its
+   * own subreport of the notebook. If one optimizer fails, the others are cancelled.
+   *
+   * @param concurrent the concurrent
+   */
+  public void setConcurrent(boolean concurrent) {
+    this.concurrent = concurrent;
+  }
+
+  /**
+   * Gets the registered optimizers, in the order they are run and reported.
+   *
+   * @return the optimizers
+   */
+  @Nonnull
+  public Map<String, OptimizerConfig> getOptimizers() {
+    return Collections.unmodifiableMap(optimizers);
+  }
+
+  /**
+   * Registers an optimizer, replacing any other of the same name.
+   *
+   * @param optimizer the optimizer
+   */
+  public void addOptimizer(@Nonnull OptimizerConfig optimizer) {
+    optimizers.put(optimizer.name, optimizer);
+  }
+
+  /**
+   * Removes an optimizer.
+   *
+   * @param name the name
+   */
+  public void removeOptimizer(@Nonnull String name) {
+    optimizers.remove(name);
+  }
+
+  /**
+   * Is racing boolean.
+   *
+   * @return the boolean
+   */
+  public boolean isRacing() {
+    return racing;
+  }
+
+  /**
+   * Sets racing mode. All optimizers then train concurrently in lock-step wall-time
+   * slices, and after each slice any optimizer whose best fitness trails the leader by
+   * more than the race margin is stopped.
+   *
+   * @param racing the racing
+   */
+  public void setRacing(boolean racing) {
+    this.racing = racing;
+  }
+
+  /**
+   * Gets race slice millis.
+   *
+   * @return the race slice millis
+   */
+  public long getRaceSliceMillis() {
+    return raceSliceMillis;
+  }
+
+  /**
+   * Sets race slice millis.
+   *
+   * @param raceSliceMillis the race slice millis
+   */
+  public void setRaceSliceMillis(long raceSliceMillis) {
+    this.raceSliceMillis = raceSliceMillis;
+  }
+
+  /**
+   * Gets race margin.
+   *
+   * @return the race margin
+   */
+  public double getRaceMargin() {
+    return raceMargin;
+  }
+
+  /**
+   * Sets the race margin, in orders of magnitude of fitness behind the leader.
+   *
+   * @param raceMargin the race margin
+   */
+  public void setRaceMargin(double raceMargin) {
+    this.raceMargin = raceMargin;
+  }
+
+  /**
+   * Is sampled boolean.
+   *
+   * @return the boolean
+   */
+  public boolean isSampled() {
+    return sampled;
+  }
+
+  /**
+   * Sets sampled mode. Model learning then generates its rows from a {@link SampleSource}
+   * seeded by {@link #getSampleSeed()} and computes the targets one
+   * {@link #getEvalBatchSize()} chunk at a time, so the target network never evaluates the
+   * full batch at once. The rows are not streamed: all of them are held while training,
+   * since the trainers take an array, so heap use stays proportional to the batch count.
+   *
+   * @param sampled the sampled
+   */
+  public void setSampled(boolean sampled) {
+    this.sampled = sampled;
+  }
+
+  /**
+   * Gets eval batch size.
+   *
+   * @return the eval batch size
+   */
+  public int getEvalBatchSize() {
+    return evalBatchSize;
+  }
+
+  /**
+   * Sets the number of rows evaluated per pass when generating targets and measuring
+   * fitness; zero evaluates all rows at once.
+   *
+   * @param evalBatchSize the eval batch size
+   */
+  public void setEvalBatchSize(int evalBatchSize) {
+    this.evalBatchSize = evalBatchSize;
+  }
+
+  /**
+   * Gets seed.
+   *
+   * @return the seed
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Sets the seed of the weight and input randomization; random unless reproducible mode
+   * is on (see {@link TestSeeds}).
+   *
+   * @param seed the seed
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Gets sample seed.
+   *
+   * @return the sample seed
+   */
+  public long getSampleSeed() {
+    return sampleSeed;
+  }
+
+  /**
+   * Sets sample seed.
+   *
+   * @param sampleSeed the sample seed
+   */
+  public void setSampleSeed(long sampleSeed) {
+    this.sampleSeed = sampleSeed;
+  }
+
   /**
    * Is verbose boolean.
    *
@@ -311,7 +540,7 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
       RefUtil.freeRef(inputPrototype);
       throw new AssertionError("Inputs are all zero?");
     }
-    @Nonnull final Random random = new Random();
+    @Nonnull final Random random = new Random(seed);
     final boolean testInput = RefArrays.stream(RefUtil.addRef(inputPrototype)).anyMatch(x -> {
       boolean temp_18_0005 = x.length() > 0;
       x.freeRef();
@@ -484,6 +713,8 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
   @Nullable
   public TestResult testModelLearning(@Nonnull final NotebookOutput log, @Nonnull final Layer component,
                                       final Random random, @Nullable final Tensor[] inputPrototype) {
+    if (isSampled())
+      return testModelLearningSampled(log, component, random, inputPrototype);
     Layer network_target = shuffle(random, component.copy());
     network_target.freeze();
     final Tensor[][] input_target = shuffleCopy(random, inputPrototype);
@@ -516,6 +747,68 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
     return trainAll("Model Convergence", log, trainingInput, shuffle(random, copy));
   }
 
+  /**
+   * Model learning over {@link #getBatches()} rows generated by a {@link SampleSource}. The
+   * target network is evaluated one {@link #getEvalBatchSize()} chunk at a time. Every row
+   * and its target is then held in one array, shared by all optimizers, for the whole of
+   * training.
+   *
+   * @param log            the log
+   * @param component      the component
+   * @param random         the random
+   * @param inputPrototype the input prototype
+   * @return the test result
+   */
+  @Nullable
+  public TestResult testModelLearningSampled(@Nonnull final NotebookOutput log, @Nonnull final Layer component,
+                                             final Random random, @Nonnull final Tensor[] inputPrototype) {
+    Layer network_target = shuffle(random, component.copy());
+    network_target.freeze();
+    log.p(RefString.format(
+        "In this apply, attempt to train a network to emulate a randomized network over %d generated samples (seed %d). The target state is:",
+        getBatches(), getSampleSeed()));
+    log.eval(RefUtil.wrapInterface((UncheckedSupplier<String>) () -> {
+      RefList<double[]> state = network_target.state();
+      assert state != null;
+      String description = state.stream().map(RefArrays::toString).reduce((a, b) -> a + "\n" + b).orElse("");
+      state.freeRef();
+      return description;
+    }, network_target.addRef()));
+    final SampleSource source = new SampleSource(inputPrototype, getSampleSeed(), getBatches(), getRandomizationMode());
+    final int chunk = 0 < evalBatchSize ? evalBatchSize : getBatches();
+    final Tensor[][] trainingInput = new Tensor[getBatches()][];
+    try {
+      for (int from = 0; from < getBatches(); from += chunk) {
+        final Tensor[][] rows = source.rows(from, Math.min(getBatches(), from + chunk));
+        Result eval = network_target.eval(ConstantResult.batchResultArray(RefUtil.addRef(rows)));
+        assert eval != null;
+        TensorList result = Result.getData(eval);
+        if (result.length() != rows.length) {
+          logger.info("Batch layers not supported");
+          result.freeRef();
+          RefUtil.freeRef(rows);
+          for (int i = 0; i < from; i++) {
+            RefUtil.freeRef(trainingInput[i]);
+          }
+          component.freeRef();
+          return null;
+        }
+        for (int i = 0; i < rows.length; i++) {
+          final Tensor[] row = Arrays.copyOf(rows[i], rows[i].length + 1);
+          row[rows[i].length] = result.get(i);
+          trainingInput[from + i] = row;
+        }
+        result.freeRef();
+      }
+    } finally {
+      network_target.freeRef();
+      source.freeRef();
+    }
+    Layer copy = component.copy();
+    component.freeRef();
+    return trainAll("Model Convergence", log, trainingInput, shuffle(random, copy));
+  }
+
   /**
    * Min double.
    *
@@ -554,24 +847,49 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
   @Nonnull
   public TestResult trainAll(CharSequence title, @Nonnull NotebookOutput log, @Nonnull Tensor[][] trainingInput,
                              @Nonnull Layer layer, boolean... mask) {
-    log.h3("Gradient Descent");
-    final List<StepRecord> gd = train(log, this::trainGD, layer.copy(), copy(RefUtil.addRef(trainingInput)), mask);
-    log.h3("Conjugate Gradient Descent");
-    final List<StepRecord> cjgd = train(log, this::trainCjGD, layer.copy(), copy(RefUtil.addRef(trainingInput)), mask);
-    log.h3("Limited-Memory BFGS");
-    final List<StepRecord> lbfgs = train(log, this::trainLBFGS, layer.copy(), copy(RefUtil.addRef(trainingInput)), mask);
+    final List<OptimizerConfig> configs = new ArrayList<>(optimizers.values());
+    final String[] titles = configs.stream().map(config -> config.title).toArray(String[]::new);
+    final Race race = isRacing() ? new Race(configs.size(), raceSliceMillis, raceMargin) : null;
+    final List<RefBiFunction<NotebookOutput, Trainable, List<StepRecord>>> functions = new ArrayList<>();
+    for (int i = 0; i < configs.size(); i++) {
+      final int index = i;
+      final OptimizerConfig config = configs.get(i);
+      if (null == race) {
+        functions.add((sublog, trainable) -> trainWith(sublog, trainable, config, TrainingTester::getMonitor));
+      } else {
+        functions.add((sublog, trainable) -> {
+          try {
+            return trainWith(sublog, trainable, config, history -> race.monitor(index, history));
+          } finally {
+            race.finish(index);
+          }
+        });
+      }
+    }
+    final List<List<StepRecord>> histories;
+    if (isConcurrent() || null != race) {
+      histories = trainConcurrently(log, titles, functions, layer.addRef(), RefUtil.addRef(trainingInput), mask);
+    } else {
+      histories = new ArrayList<>();
+      for (int i = 0; i < titles.length; i++) {
+        log.h3(titles[i]);
+        histories.add(train(log, functions.get(i), layer.copy(), trainingData(RefUtil.addRef(trainingInput), mask), mask));
+      }
+    }
     RefUtil.freeRef(trainingInput);
     layer.freeRef();
-    @Nonnull final ProblemRun[] runs = {
-        new ProblemRun("GD", gd, Color.GRAY, ProblemRun.PlotType.Line),
-        new ProblemRun("CjGD", cjgd, Color.CYAN, ProblemRun.PlotType.Line),
-        new ProblemRun("LBFGS", lbfgs, Color.GREEN, ProblemRun.PlotType.Line)
-    };
+    if (null != race) {
+      log.h3("Race");
+      log.p(race.describe(configs));
+    }
+    @Nonnull final ProblemRun[] runs = new ProblemRun[configs.size()];
     @Nonnull
     ProblemResult result = new ProblemResult();
-    result.put("GD", getResult(min(gd)));
-    result.put("CjGD", getResult(min(cjgd)));
-    result.put("LBFGS", getResult(min(lbfgs)));
+    for (int i = 0; i < configs.size(); i++) {
+      final OptimizerConfig config = configs.get(i);
+      runs[i] = new ProblemRun(config.name, histories.get(i), config.color, ProblemRun.PlotType.Line);
+      result.put(config.name, getResult(histories.get(i)));
+    }
     if (verbose) {
       final PlotPanel iterPlot = log.eval(() -> {
         return TestUtil.compare(title + " vs Iteration", runs);
@@ -588,63 +906,123 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
   }
 
   /**
-   * Train cj gd list.
+   * Trains each optimizer on its own thread, against its own copy of the layer and data.
+   * Every optimizer writes to its own subreport of the notebook, a real notebook, so evals
+   * capture their output and timing and resources are written in order. The subreports
+   * are all opened, in the order the optimizers are listed, before any training starts,
+   * so they appear in the notebook in that order whichever optimizer finishes first. If
+   * any optimizer fails, the remaining ones are cancelled and interrupted before the
+   * failure is rethrown.
    *
-   * @param log       the log
-   * @param trainable the trainable
-   * @return the list
+   * @param log           the log
+   * @param titles        the titles
+   * @param optimizers    the optimizers
+   * @param layer         the layer
+   * @param trainingInput the training input
+   * @param mask          the mask
+   * @return the histories, in the order of the optimizers
    */
   @Nonnull
-  public List<StepRecord> trainCjGD(@Nonnull final NotebookOutput log, @Nullable final Trainable trainable) {
-    log.p(
-        "First, we use a conjugate gradient descent method, which converges the fastest for purely linear functions.");
-    @Nonnull final List<StepRecord> history = new ArrayList<>();
+  public List<List<StepRecord>> trainConcurrently(@Nonnull NotebookOutput log, @Nonnull String[] titles,
+                                                  @Nonnull List<RefBiFunction<NotebookOutput, Trainable, List<StepRecord>>> optimizers,
+                                                  @Nonnull Layer layer, @Nonnull Tensor[][] trainingInput,
+                                                  boolean... mask) {
+    final NotebookOutput[] sublogs = new NotebookOutput[optimizers.size()];
     try {
-      log.eval(() -> {
-        IterativeTrainer iterativeTrainer = new IterativeTrainer(trainable.addRef());
+      return withSubreports(log, titles, 0, sublogs, () -> {
+        final int count = optimizers.size();
+        final List<Future<List<StepRecord>>> futures = new ArrayList<>();
+        final ExecutorService pool = Executors.newFixedThreadPool(count);
+        boolean completed = false;
         try {
-          iterativeTrainer.setLineSearchFactory(label -> new QuadraticSearch());
-          iterativeTrainer.setOrientation(new GradientDescent());
-          iterativeTrainer.setMonitor(TrainingTester.getMonitor(history));
-          iterativeTrainer.setTimeout(30, TimeUnit.SECONDS);
-          iterativeTrainer.setMaxIterations(250);
-          iterativeTrainer.setTerminateThreshold(0);
-          return iterativeTrainer.run();
+          for (int i = 0; i < count; i++) {
+            // Copies are made up front, so the workers never touch shared state
+            final Layer layerCopy = layer.copy();
+            final Tensor[][] dataCopy = trainingData(RefUtil.addRef(trainingInput), mask);
+            final RefBiFunction<NotebookOutput, Trainable, List<StepRecord>> optimizer = optimizers.get(i);
+            final NotebookOutput sublog = sublogs[i];
+            futures.add(pool.submit(() -> train(sublog, optimizer, layerCopy, dataCopy, mask)));
+          }
+          final List<List<StepRecord>> histories = new ArrayList<>();
+          for (Future<List<StepRecord>> future : futures) {
+            histories.add(future.get());
+          }
+          completed = true;
+          return histories;
+        } catch (ExecutionException e) {
+          throw Util.throwException(e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw Util.throwException(e);
         } finally {
-          iterativeTrainer.freeRef();
+          if (completed) {
+            pool.shutdown();
+          } else {
+            // One optimizer failed; stop the others instead of waiting for them to finish
+            for (Future<List<StepRecord>> future : futures) {
+              future.cancel(true);
+            }
+            pool.shutdownNow();
+          }
         }
       });
-    } catch (Throwable e) {
-      if (isThrowExceptions())
-        throw Util.throwException(e);
     } finally {
-      trainable.freeRef();
+      RefUtil.freeRef(trainingInput);
+      layer.freeRef();
     }
-    return history;
   }
 
   /**
-   * Train gd list.
+   * Opens one subreport per title, nested so that all of them stay open while the body
+   * runs, and passes them to the body through the given array.
    *
-   * @param log       the log
-   * @param trainable the trainable
+   * @param <T>     the type parameter
+   * @param log     the log
+   * @param titles  the titles
+   * @param index   the index of the next subreport to open
+   * @param sublogs the subreports, filled in by title
+   * @param body    the body
+   * @return the body's result
+   */
+  private static <T> T withSubreports(@Nonnull final NotebookOutput log, @Nonnull final String[] titles,
+                                      final int index, @Nonnull final NotebookOutput[] sublogs,
+                                      @Nonnull final Supplier<T> body) {
+    if (index >= sublogs.length)
+      return body.get();
+    return log.subreport(titles[index], sublog -> {
+      sublogs[index] = sublog;
+      return withSubreports(log, titles, index + 1, sublogs, body);
+    });
+  }
+
+  /**
+   * Runs one optimizer configuration. In a race, a dropped optimizer stops early and its
+   * history ends where it was dropped.
+   *
+   * @param log            the log
+   * @param trainable      the trainable
+   * @param optimizer      the optimizer
+   * @param monitorFactory builds the monitor that records the history
    * @return the list
    */
   @Nonnull
-  public List<StepRecord> trainGD(@Nonnull final NotebookOutput log, @Nullable final Trainable trainable) {
-    log.p("First, we train using basic gradient descent method apply weak line search conditions.");
+  public List<StepRecord> trainWith(@Nonnull final NotebookOutput log, @Nullable final Trainable trainable,
+                                    @Nonnull final OptimizerConfig optimizer,
+                                    @Nonnull final Function<List<StepRecord>, TrainingMonitor> monitorFactory) {
+    log.p(optimizer.description);
     @Nonnull final List<StepRecord> history = new ArrayList<>();
     try {
-      log.eval(() -> {
+      log.eval((UncheckedSupplier<Object>) () -> {
         IterativeTrainer iterativeTrainer = new IterativeTrainer(trainable.addRef());
         try {
-          iterativeTrainer.setLineSearchFactory(label -> new ArmijoWolfeSearch());
-          iterativeTrainer.setOrientation(new GradientDescent());
-          iterativeTrainer.setMonitor(TrainingTester.getMonitor(history));
+          iterativeTrainer.setMonitor(monitorFactory.apply(history));
           iterativeTrainer.setTimeout(30, TimeUnit.SECONDS);
           iterativeTrainer.setMaxIterations(250);
           iterativeTrainer.setTerminateThreshold(0);
+          optimizer.configure(iterativeTrainer);
           return iterativeTrainer.run();
+        } catch (RaceDropped e) {
+          return e.getMessage();
         } finally {
           iterativeTrainer.freeRef();
         }
@@ -658,6 +1036,30 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
     return history;
   }
 
+  /**
+   * Train cj gd list.
+   *
+   * @param log       the log
+   * @param trainable the trainable
+   * @return the list
+   */
+  @Nonnull
+  public List<StepRecord> trainCjGD(@Nonnull final NotebookOutput log, @Nullable final Trainable trainable) {
+    return trainWith(log, trainable, CJGD_OPTIMIZER, TrainingTester::getMonitor);
+  }
+
+  /**
+   * Train gd list.
+   *
+   * @param log       the log
+   * @param trainable the trainable
+   * @return the list
+   */
+  @Nonnull
+  public List<StepRecord> trainGD(@Nonnull final NotebookOutput log, @Nullable final Trainable trainable) {
+    return trainWith(log, trainable, GD_OPTIMIZER, TrainingTester::getMonitor);
+  }
+
   /**
    * Train lbfgs list.
    *
@@ -667,39 +1069,15 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
    */
   @Nonnull
   public List<StepRecord> trainLBFGS(@Nonnull final NotebookOutput log, @Nullable final Trainable trainable) {
-    log.p(
-        "Next, we apply the same optimization using L-BFGS, which is nearly ideal for purely second-order or quadratic functions.");
-    @Nonnull final List<StepRecord> history = new ArrayList<>();
-    try {
-      log.eval(() -> {
-        IterativeTrainer iterativeTrainer = new IterativeTrainer(trainable.addRef());
-        try {
-          iterativeTrainer.setLineSearchFactory(label -> new ArmijoWolfeSearch());
-          iterativeTrainer.setOrientation(new LBFGS());
-          iterativeTrainer.setMonitor(TrainingTester.getMonitor(history));
-          iterativeTrainer.setTimeout(30, TimeUnit.SECONDS);
-          iterativeTrainer.setIterationsPerSample(100);
-          iterativeTrainer.setMaxIterations(250);
-          iterativeTrainer.setTerminateThreshold(0);
-          return iterativeTrainer.run();
-        } finally {
-          iterativeTrainer.freeRef();
-        }
-      });
-    } catch (Throwable e) {
-      if (isThrowExceptions())
-        throw Util.throwException(e);
-    } finally {
-      trainable.freeRef();
-    }
-    return history;
+    return trainWith(log, trainable, LBFGS_OPTIMIZER, TrainingTester::getMonitor);
   }
 
   @Nonnull
   @Override
   public String toString() {
     return "TrainingTester{" + "batches=" + batches + ", randomizationMode=" + randomizationMode + ", verbose="
-        + verbose + ", throwExceptions=" + throwExceptions + '}';
+        + verbose + ", throwExceptions=" + throwExceptions + ", concurrent=" + concurrent
+        + ", optimizers=" + optimizers.keySet() + ", racing=" + racing + ", sampled=" + sampled + '}';
   }
 
   public @SuppressWarnings("unused")
@@ -730,10 +1108,21 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
    */
   protected abstract Layer lossLayer();
 
-  private TrainingTester.TrainingResult getResult(double min) {
-    return new TrainingResult(Math.abs(min) < 1e-9
+  private TrainingTester.TrainingResult getResult(@Nonnull List<StepRecord> history) {
+    final double min = min(history);
+    return new TrainingResult(Math.abs(min) < CONVERGED
         ? ResultType.Converged
-        : ResultType.NonConverged, min);
+        : ResultType.NonConverged, min, history);
+  }
+
+  @Nonnull
+  private static Tensor[][] trainingData(@Nonnull final Tensor[][] trainingInput, @Nonnull final boolean[] mask) {
+    // Only masked (regressed) inputs are modified by training; otherwise the rows can be shared
+    for (boolean masked : mask) {
+      if (masked)
+        return copy(trainingInput);
+    }
+    return trainingInput;
   }
 
   @Nonnull
@@ -775,7 +1164,9 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
                 .toArray(DAGNode[]::new)),
         network.getInput(inputs - 1)));
     @Nonnull
-    ArrayTrainable trainable = new ArrayTrainable(RefUtil.addRef(data), network.addRef());
+    ArrayTrainable trainable = 0 < evalBatchSize
+        ? new ArrayTrainable(RefUtil.addRef(data), network.addRef(), evalBatchSize)
+        : new ArrayTrainable(RefUtil.addRef(data), network.addRef());
     if (0 < mask.length)
       trainable.setMask(mask);
     List<StepRecord> history = runOpt(log, opt, trainable);
@@ -980,6 +1371,31 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
      * The Value.
      */
     final double value;
+    /**
+     * Seconds from the first recorded step until fitness reached 1e-3, or NaN if it never did.
+     */
+    final double timeTo1e3;
+    /**
+     * Seconds from the first recorded step until fitness reached 1e-5, or NaN if it never did.
+     */
+    final double timeTo1e5;
+    /**
+     * The iteration at which fitness reached 1e-3, or -1 if it never did.
+     */
+    final long iterationsTo1e3;
+    /**
+     * The iteration at which fitness reached 1e-5, or -1 if it never did.
+     */
+    final long iterationsTo1e5;
+    /**
+     * Recorded training iterations per second; line searches may evaluate the fitness
+     * several times per iteration, so this is not an evaluation rate.
+     */
+    final double iterationsPerSecond;
+    /**
+     * The least-squares slope of log10(fitness) against seconds; more negative is faster.
+     */
+    final double convergenceRate;
 
     /**
      * Instantiates a new Training result.
@@ -988,14 +1404,64 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
      * @param value the value
      */
     public TrainingResult(final ResultType type, final double value) {
+      this(type, value, new ArrayList<>());
+    }
+
+    /**
+     * Instantiates a new Training result, deriving the convergence metrics from the
+     * training history.
+     *
+     * @param type    the type
+     * @param value   the value
+     * @param history the history
+     */
+    public TrainingResult(final ResultType type, final double value, @Nonnull final List<StepRecord> history) {
       this.type = type;
       this.value = value;
+      final long start = history.stream().mapToLong(step -> step.epochTime).min().orElse(0);
+      final long end = history.stream().mapToLong(step -> step.epochTime).max().orElse(0);
+      final StepRecord at1e3 = firstBelow(history, 1e-3);
+      final StepRecord at1e5 = firstBelow(history, 1e-5);
+      this.timeTo1e3 = null == at1e3 ? Double.NaN : (at1e3.epochTime - start) / 1000.0;
+      this.timeTo1e5 = null == at1e5 ? Double.NaN : (at1e5.epochTime - start) / 1000.0;
+      this.iterationsTo1e3 = null == at1e3 ? -1 : at1e3.iteration;
+      this.iterationsTo1e5 = null == at1e5 ? -1 : at1e5.iteration;
+      this.iterationsPerSecond = end > start ? history.size() / ((end - start) / 1000.0) : Double.NaN;
+      this.convergenceRate = logLinearRate(history, start);
     }
 
     @Nonnull
     @Override
     public String toString() {
-      return RefString.format("{ \"type\": \"%s\", \"value\": %s }", type, value);
+      return RefString.format(
+          "{ \"type\": \"%s\", \"value\": %s, \"time_to_1e-3\": %s, \"time_to_1e-5\": %s, \"iterations_to_1e-3\": %s, "
+              + "\"iterations_to_1e-5\": %s, \"iterations_per_second\": %s, \"convergence_rate\": %s }",
+          type, value, json(timeTo1e3), json(timeTo1e5), iterationsTo1e3, iterationsTo1e5, json(iterationsPerSecond),
+          json(convergenceRate));
+    }
+
+    @Nullable
+    private static StepRecord firstBelow(@Nonnull final List<StepRecord> history, final double threshold) {
+      return history.stream().filter(step -> step.fitness <= threshold)
+          .min(Comparator.comparingLong(step -> step.epochTime)).orElse(null);
+    }
+
+    private static double logLinearRate(@Nonnull final List<StepRecord> history, final long start) {
+      final double[][] points = history.stream().filter(step -> step.fitness > 0 && Double.isFinite(step.fitness))
+          .map(step -> new double[]{(step.epochTime - start) / 1000.0, Math.log10(step.fitness)})
+          .toArray(double[][]::new);
+      if (points.length < 2)
+        return Double.NaN;
+      final double meanX = Arrays.stream(points).mapToDouble(p -> p[0]).average().getAsDouble();
+      final double meanY = Arrays.stream(points).mapToDouble(p -> p[1]).average().getAsDouble();
+      final double covariance = Arrays.stream(points).mapToDouble(p -> (p[0] - meanX) * (p[1] - meanY)).sum();
+      final double variance = Arrays.stream(points).mapToDouble(p -> (p[0] - meanX) * (p[0] - meanX)).sum();
+      return 0 < variance ? covariance / variance : Double.NaN;
+    }
+
+    @Nonnull
+    private static String json(final double value) {
+      return Double.isFinite(value) ? Double.toString(value) : "null";
     }
   }
 
@@ -1038,4 +1504,195 @@ public abstract class TrainingTester extends ComponentTestBase<TrainingTester.Co
       ).reduce((a, b) -> a + ", " + b).get() + " }";
     }
   }
+
+  /**
+   * A named optimizer configuration applied to an {@link IterativeTrainer}, on top of the
+   * shared monitor, timeout and iteration limit.
+   */
+  public static class OptimizerConfig {
+    /**
+     * The Name.
+     */
+    @Nonnull
+    public final String name;
+    /**
+     * The Title.
+     */
+    @Nonnull
+    public final String title;
+    /**
+     * The Description.
+     */
+    @Nonnull
+    public final String description;
+    /**
+     * The Color.
+     */
+    @Nonnull
+    public final Color color;
+    @Nonnull
+    private final Consumer<IterativeTrainer> configuration;
+
+    /**
+     * Instantiates a new Optimizer config.
+     *
+     * @param name          the name
+     * @param title         the title
+     * @param description   the description
+     * @param color         the color
+     * @param configuration the configuration
+     */
+    public OptimizerConfig(@Nonnull String name, @Nonnull String title, @Nonnull String description,
+                           @Nonnull Color color, @Nonnull Consumer<IterativeTrainer> configuration) {
+      this.name = name;
+      this.title = title;
+      this.description = description;
+      this.color = color;
+      this.configuration = configuration;
+    }
+
+    /**
+     * Configure.
+     *
+     * @param trainer the trainer
+     */
+    public void configure(@Nonnull IterativeTrainer trainer) {
+      configuration.accept(trainer);
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * Thrown from a racing optimizer's monitor to stop it once it has been dropped.
+   * IterativeTrainer has no hook for a monitor to end a run, so this unwinds
+   * {@link IterativeTrainer#run()} from inside its step loop; {@link #trainWith} catches
+   * it and still frees the trainer and trainable in its finally blocks, and the history
+   * already holds the last completed step.
+   */
+  private static class RaceDropped extends RuntimeException {
+    /**
+     * Instantiates a new Race dropped.
+     *
+     * @param message the message
+     */
+    RaceDropped(String message) {
+      super(message);
+    }
+  }
+
+  private static class Race {
+    private final long sliceMillis;
+    private final double margin;
+    private final double[] best;
+    private final int[] droppedAt;
+    private final boolean[] finished;
+    private final Phaser phaser;
+    private final long start = System.currentTimeMillis();
+
+    /**
+     * Instantiates a new Race.
+     *
+     * @param count       the count
+     * @param sliceMillis the slice millis
+     * @param margin      the margin
+     */
+    Race(final int count, final long sliceMillis, final double margin) {
+      this.sliceMillis = sliceMillis;
+      this.margin = margin;
+      this.best = new double[count];
+      this.droppedAt = new int[count];
+      this.finished = new boolean[count];
+      Arrays.fill(best, Double.POSITIVE_INFINITY);
+      Arrays.fill(droppedAt, -1);
+      this.phaser = new Phaser(count) {
+        @Override
+        protected boolean onAdvance(int phase, int registeredParties) {
+          judge(phase + 1);
+          return 0 == registeredParties;
+        }
+      };
+    }
+
+    /**
+     * Wraps the history-recording monitor with the slice barrier.
+     *
+     * @param index   the index
+     * @param history the history
+     * @return the training monitor
+     */
+    @Nonnull
+    TrainingMonitor monitor(final int index, @Nonnull final List<StepRecord> history) {
+      final TrainingMonitor inner = getMonitor(history);
+      return new TrainingMonitor() {
+        @Override
+        public void log(final String msg) {
+          inner.log(msg);
+        }
+
+        @Override
+        public void onStepComplete(@Nonnull final Step currentPoint) {
+          inner.onStepComplete(currentPoint);
+          checkpoint(index, history.get(history.size() - 1).fitness);
+        }
+      };
+    }
+
+    /**
+     * Leaves the race; called once by every optimizer, however it stopped.
+     *
+     * @param index the index
+     */
+    void finish(final int index) {
+      synchronized (this) {
+        finished[index] = true;
+      }
+      phaser.arriveAndDeregister();
+    }
+
+    /**
+     * Describe string.
+     *
+     * @param configs the configs
+     * @return the string
+     */
+    @Nonnull
+    synchronized String describe(@Nonnull final List<OptimizerConfig> configs) {
+      final StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < best.length; i++) {
+        sb.append(RefString.format("%s: best fitness %s, %s%n", configs.get(i).name, best[i],
+            droppedAt[i] < 0 ? "finished" : RefString.format("dropped after slice %d", droppedAt[i])));
+      }
+      return sb.toString();
+    }
+
+    private void checkpoint(final int index, final double fitness) {
+      synchronized (this) {
+        best[index] = Math.min(best[index], fitness);
+      }
+      while (!isDropped(index) && System.currentTimeMillis() >= start + (phaser.getPhase() + 1L) * sliceMillis) {
+        phaser.arriveAndAwaitAdvance();
+      }
+      if (isDropped(index))
+        throw new RaceDropped(RefString.format("Dropped from the race after slice %d", droppedAt[index]));
+    }
+
+    private synchronized boolean isDropped(final int index) {
+      return 0 <= droppedAt[index];
+    }
+
+    private synchronized void judge(final int slice) {
+      // Fitness below the convergence threshold counts as converged, so such candidates tie
+      // with the leader instead of trailing it by infinitely many orders of magnitude
+      final double leader = Math.max(CONVERGED, Arrays.stream(best).min().orElse(Double.POSITIVE_INFINITY));
+      for (int i = 0; i < best.length; i++) {
+        if (droppedAt[i] < 0 && !finished[i] && Math.log10(Math.max(CONVERGED, best[i])) - Math.log10(leader) > margin)
+          droppedAt[i] = slice;
+      }
+    }
+  }
 }